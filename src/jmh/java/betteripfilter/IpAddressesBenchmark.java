@@ -0,0 +1,42 @@
+package betteripfilter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IpAddressesBenchmark {
+    private static final int VALUES = 1024;
+
+    private String[] ipv4;
+    private int cursor;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        ipv4 = new String[VALUES];
+        for (int i = 0; i < VALUES; i++) {
+            ipv4[i] = IpAddresses.intToIp(random.nextInt());
+        }
+    }
+
+    @Benchmark
+    public long parseIpv4() {
+        return IpAddresses.parseIpv4(ipv4[cursor++ & (VALUES - 1)]);
+    }
+}
@@ -0,0 +1,102 @@
+package betteripfilter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IpStoreBenchmark {
+    private static final int LOOKUPS = 1024;
+
+    @Param({"10", "1000", "100000", "1000000"})
+    public int entries;
+
+    @Param({"0", "4096"})
+    public int verdictCacheSize;
+
+    private File dataFolder;
+    private IpStore store;
+    private String[] lookups;
+    private ClientAddress[] addresses;
+    private int cursor;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dataFolder = Files.createTempDirectory("ipf-bench").toFile();
+        store = new IpStore(dataFolder, Logger.getLogger("IpStoreBenchmark"));
+        store.configureVerdictCache(verdictCacheSize);
+        store.load();
+
+        // Equal thirds of exact, CIDR and range entries, deterministic across runs.
+        Random random = new Random(42);
+        List<String> whitelist = new ArrayList<>(entries);
+        List<Integer> anchors = new ArrayList<>(entries);
+        for (int i = 0; i < entries; i++) {
+            int ip = random.nextInt();
+            anchors.add(ip);
+            switch (i % 3) {
+                case 0 -> whitelist.add(IpAddresses.intToIp(ip));
+                case 1 -> whitelist.add(IpAddresses.intToIp(ip & 0xFFFFFF00) + "/24");
+                default -> whitelist.add(IpAddresses.intToIp(ip) + "-" + IpAddresses.intToIp(ip + 63));
+            }
+        }
+        store.addAll(whitelist);
+        store.flush();
+
+        // Half the lookups hit an entry, half are random and almost always miss.
+        lookups = new String[LOOKUPS];
+        addresses = new ClientAddress[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; i++) {
+            int ip = i % 2 == 0 ? anchors.get(random.nextInt(entries)) : random.nextInt();
+            lookups[i] = IpAddresses.intToIp(ip);
+            addresses[i] = ClientAddress.ipv4(ip);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        store.close();
+        try (Stream<Path> paths = Files.walk(dataFolder.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Benchmark
+    public boolean isAllowed() {
+        String ip = lookups[cursor++ & (LOOKUPS - 1)];
+        return store.isAllowed(ip);
+    }
+
+    @Benchmark
+    public boolean isAllowedParsed() {
+        ClientAddress address = addresses[cursor++ & (LOOKUPS - 1)];
+        return store.isAllowed(address);
+    }
+}
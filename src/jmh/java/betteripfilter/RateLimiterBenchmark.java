@@ -0,0 +1,58 @@
+package betteripfilter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+public class RateLimiterBenchmark {
+    private static final int KEYS = 1 << 16;
+    private static final long WINDOW_MILLIS = 10_000L;
+    private static final int MAX_ATTEMPTS = 5;
+
+    @Param({"0", "65536"})
+    public int tableSlots;
+
+    @Param({"FIXED_WINDOW", "SLIDING_WINDOW", "TOKEN_BUCKET"})
+    public RateLimitMode mode;
+
+    private RateLimiter limiter;
+    private ClientAddress[] keys;
+
+    @Setup
+    public void setUp() {
+        limiter = new RateLimiter(tableSlots, mode);
+        keys = new ClientAddress[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            keys[i] = ClientAddress.ipv4(0x0A000000 | i);
+        }
+    }
+
+    @Benchmark
+    public boolean singleKey() {
+        return limiter.tryAcquire(keys[0], WINDOW_MILLIS, MAX_ATTEMPTS);
+    }
+
+    @Benchmark
+    public boolean manyKeys() {
+        return limiter.tryAcquire(keys[ThreadLocalRandom.current().nextInt(KEYS)], WINDOW_MILLIS, MAX_ATTEMPTS);
+    }
+}
@@ -0,0 +1,46 @@
+package betteripfilter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WebhookNotifierBenchmark {
+    private List<WebhookNotifier.Event> batch;
+
+    @Setup
+    public void setUp() {
+        batch = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            batch.add(new WebhookNotifier.Event(DenyReason.RATE_LIMIT, "Player" + i,
+                    IpAddresses.intToIp(0xCB007100 | i), Instant.now()));
+        }
+    }
+
+    @Benchmark
+    public String buildPayload() {
+        return WebhookNotifier.buildPayload(DenyReason.NOT_WHITELISTED, "Player\"Name", "203.0.113.10");
+    }
+
+    @Benchmark
+    public String buildBatchPayload() {
+        return WebhookNotifier.buildBatchPayload(batch);
+    }
+}
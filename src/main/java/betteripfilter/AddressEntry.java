@@ -0,0 +1,211 @@
+package betteripfilter;
+
+/**
+ * One parsed address entry: an exact address, a CIDR block or an inclusive range, IPv4 or IPv6.
+ * Shared by every list that compiles entries into an {@link IntervalIndex} and an {@link Ipv6Trie}.
+ */
+final class AddressEntry {
+    private enum Type {
+        EXACT,
+        CIDR,
+        RANGE
+    }
+
+    private final String normalized;
+    private final Type type;
+    private final boolean ipv6;
+    private final int singleIp;
+    private final int prefix;
+    private final int rangeStart;
+    private final int rangeEnd;
+    private final long ipv6StartHigh;
+    private final long ipv6StartLow;
+    private final long ipv6EndHigh;
+    private final long ipv6EndLow;
+
+    private AddressEntry(String normalized, Type type, boolean ipv6, int singleIp, int prefix,
+                         int rangeStart, int rangeEnd, long ipv6StartHigh, long ipv6StartLow,
+                         long ipv6EndHigh, long ipv6EndLow) {
+        this.normalized = normalized;
+        this.type = type;
+        this.ipv6 = ipv6;
+        this.singleIp = singleIp;
+        this.prefix = prefix;
+        this.rangeStart = rangeStart;
+        this.rangeEnd = rangeEnd;
+        this.ipv6StartHigh = ipv6StartHigh;
+        this.ipv6StartLow = ipv6StartLow;
+        this.ipv6EndHigh = ipv6EndHigh;
+        this.ipv6EndLow = ipv6EndLow;
+    }
+
+    private static AddressEntry exact(String normalized, int ip) {
+        return new AddressEntry(normalized, Type.EXACT, false, ip, 0, 0, 0, 0, 0, 0, 0);
+    }
+
+    private static AddressEntry cidr(String normalized, int ip, int prefix) {
+        return new AddressEntry(normalized, Type.CIDR, false, ip, prefix, 0, 0, 0, 0, 0, 0);
+    }
+
+    private static AddressEntry range(String normalized, int start, int end) {
+        return new AddressEntry(normalized, Type.RANGE, false, 0, 0, start, end, 0, 0, 0, 0);
+    }
+
+    private static AddressEntry ipv6(String normalized, Type type, long startHigh, long startLow,
+                                     long endHigh, long endLow) {
+        return new AddressEntry(normalized, type, true, 0, 0, 0, 0, startHigh, startLow, endHigh, endLow);
+    }
+
+    /**
+     * Parses an exact address, {@code a.b.c.d/n}, {@code a.b.c.d-e.f.g.h} or the IPv6 equivalents,
+     * or returns null.
+     */
+    static AddressEntry parse(String raw) {
+        if (raw == null) {
+            return null;
+        }
+        String trimmed = raw.trim();
+        if (trimmed.isEmpty()) {
+            return null;
+        }
+        if (trimmed.indexOf(':') >= 0) {
+            return parseIpv6(trimmed);
+        }
+        int slashIndex = trimmed.indexOf('/');
+        int dashIndex = trimmed.indexOf('-');
+        if (slashIndex > -1) {
+            if (dashIndex > -1) {
+                return null;
+            }
+            String[] parts = trimmed.split("/", -1);
+            if (parts.length != 2) {
+                return null;
+            }
+            long ip = IpAddresses.parseIpv4(parts[0]);
+            if (ip < 0) {
+                return null;
+            }
+            int prefix = parsePrefix(parts[1], 32);
+            if (prefix < 0) {
+                return null;
+            }
+            String normalized = IpAddresses.intToIp((int) ip) + "/" + prefix;
+            return cidr(normalized, (int) ip, prefix);
+        }
+        if (dashIndex > -1) {
+            String[] parts = trimmed.split("-", -1);
+            if (parts.length != 2) {
+                return null;
+            }
+            long start = IpAddresses.parseIpv4(parts[0]);
+            long end = IpAddresses.parseIpv4(parts[1]);
+            if (start < 0 || end < 0) {
+                return null;
+            }
+            if (start > end) {
+                return null;
+            }
+            String normalized = IpAddresses.intToIp((int) start) + "-" + IpAddresses.intToIp((int) end);
+            return range(normalized, (int) start, (int) end);
+        }
+        long ip = IpAddresses.parseIpv4(trimmed);
+        if (ip < 0) {
+            return null;
+        }
+        return exact(IpAddresses.intToIp((int) ip), (int) ip);
+    }
+
+    private static AddressEntry parseIpv6(String trimmed) {
+        int slashIndex = trimmed.indexOf('/');
+        int dashIndex = trimmed.indexOf('-');
+        long[] start = new long[2];
+        if (slashIndex > -1) {
+            if (dashIndex > -1) {
+                return null;
+            }
+            String[] parts = trimmed.split("/", -1);
+            if (parts.length != 2 || !IpAddresses.parseIpv6(parts[0], start)) {
+                return null;
+            }
+            int prefix = parsePrefix(parts[1], 128);
+            if (prefix < 0) {
+                return null;
+            }
+            String normalized = IpAddresses.formatIpv6(start[0], start[1]) + "/" + prefix;
+            long highMask = IpAddresses.ipv6PrefixMask(prefix);
+            long lowMask = IpAddresses.ipv6PrefixMask(prefix - 64);
+            return ipv6(normalized, Type.CIDR, start[0] & highMask, start[1] & lowMask,
+                    start[0] | ~highMask, start[1] | ~lowMask);
+        }
+        if (dashIndex > -1) {
+            String[] parts = trimmed.split("-", -1);
+            long[] end = new long[2];
+            if (parts.length != 2 || !IpAddresses.parseIpv6(parts[0], start)
+                    || !IpAddresses.parseIpv6(parts[1], end)) {
+                return null;
+            }
+            if (Ipv6Trie.compareUnsigned(start[0], start[1], end[0], end[1]) > 0) {
+                return null;
+            }
+            String normalized = IpAddresses.formatIpv6(start[0], start[1]) + "-"
+                    + IpAddresses.formatIpv6(end[0], end[1]);
+            return ipv6(normalized, Type.RANGE, start[0], start[1], end[0], end[1]);
+        }
+        if (!IpAddresses.parseIpv6(trimmed, start)) {
+            return null;
+        }
+        return ipv6(IpAddresses.formatIpv6(start[0], start[1]), Type.EXACT,
+                start[0], start[1], start[0], start[1]);
+    }
+
+    private static int parsePrefix(String value, int maxPrefix) {
+        if (value.isEmpty() || value.length() > 3) {
+            return -1;
+        }
+        int prefix = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char ch = value.charAt(i);
+            if (ch < '0' || ch > '9') {
+                return -1;
+            }
+            prefix = prefix * 10 + (ch - '0');
+        }
+        return prefix > maxPrefix ? -1 : prefix;
+    }
+
+    private static int cidrMask(int prefix) {
+        return prefix == 0 ? 0 : -1 << (32 - prefix);
+    }
+
+    String normalized() {
+        return normalized;
+    }
+
+    boolean isIpv6() {
+        return ipv6;
+    }
+
+    boolean isExact() {
+        return type == Type.EXACT;
+    }
+
+    int singleIp() {
+        return singleIp;
+    }
+
+    void addInterval(IntervalIndex.Builder builder) {
+        if (type == Type.CIDR) {
+            int mask = cidrMask(prefix);
+            int network = singleIp & mask;
+            builder.add(network, network | ~mask);
+        } else if (type == Type.RANGE) {
+            builder.add(rangeStart, rangeEnd);
+        } else {
+            builder.add(singleIp, singleIp);
+        }
+    }
+
+    void addPrefixes(Ipv6Trie.Builder builder) {
+        builder.addRange(ipv6StartHigh, ipv6StartLow, ipv6EndHigh, ipv6EndLow);
+    }
+}
@@ -0,0 +1,79 @@
+package betteripfilter;
+
+/**
+ * Immutable set of exact addresses, CIDR blocks and ranges compiled into an {@link IntervalIndex} for IPv4 and
+ * an {@link Ipv6Trie} for IPv6, so a lookup on a parsed {@link ClientAddress} is a binary search or a trie walk
+ * and never allocates.
+ */
+public final class AddressSet {
+    private static final AddressSet EMPTY = new AddressSet(IntervalIndex.empty(), Ipv6Trie.empty(), 0);
+
+    private final IntervalIndex ipv4;
+    private final Ipv6Trie ipv6;
+    private final int entries;
+
+    private AddressSet(IntervalIndex ipv4, Ipv6Trie ipv6, int entries) {
+        this.ipv4 = ipv4;
+        this.ipv6 = ipv6;
+        this.entries = entries;
+    }
+
+    public static AddressSet empty() {
+        return EMPTY;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public boolean contains(ClientAddress address) {
+        if (address.isIpv6()) {
+            return ipv6.contains(address.high(), address.low());
+        }
+        return ipv4.contains(address.ipv4());
+    }
+
+    /**
+     * Number of entries the set was built from, before overlapping entries were merged.
+     */
+    public int size() {
+        return entries;
+    }
+
+    public boolean isEmpty() {
+        return entries == 0;
+    }
+
+    public static final class Builder {
+        private final IntervalIndex.Builder ipv4 = IntervalIndex.builder();
+        private final Ipv6Trie.Builder ipv6 = Ipv6Trie.builder();
+        private int entries;
+
+        private Builder() {
+        }
+
+        /**
+         * Adds an exact, CIDR or range entry; returns false and adds nothing if the entry cannot be parsed.
+         */
+        public boolean add(String entry) {
+            AddressEntry parsed = AddressEntry.parse(entry);
+            if (parsed == null) {
+                return false;
+            }
+            if (parsed.isIpv6()) {
+                parsed.addPrefixes(ipv6);
+            } else {
+                parsed.addInterval(ipv4);
+            }
+            entries++;
+            return true;
+        }
+
+        public AddressSet build() {
+            if (entries == 0) {
+                return EMPTY;
+            }
+            return new AddressSet(ipv4.build(), ipv6.build(), entries);
+        }
+    }
+}
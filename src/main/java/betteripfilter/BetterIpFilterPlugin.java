@@ -2,213 +2,372 @@ package betteripfilter;
 
 import betteripfilter.command.IpfCommand;
 import betteripfilter.command.IpfTabCompleter;
+import betteripfilter.listener.HandshakeFilterListener;
 import betteripfilter.listener.IpFilterListener;
-import org.bukkit.ChatColor;
 import org.bukkit.command.PluginCommand;
+import org.bukkit.event.HandlerList;
 import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
 import org.bukkit.plugin.java.JavaPlugin;
 
-import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.StandardOpenOption;
 import java.time.Instant;
-import java.util.HashSet;
-import java.util.Locale;
-import java.util.Set;
 
 public class BetterIpFilterPlugin extends JavaPlugin {
-    private static final int RATE_LIMIT_CLEANUP_THRESHOLD = 5000;
+    private static final long RATE_LIMIT_SWEEP_TICKS = 20L;
+    private static final long BLOCKLIST_CHECK_TICKS = 1200L;
+    private static final long EXPIRY_TICKS = 20L;
 
     private IpStore ipStore;
-    private RateLimiter rateLimiter;
-    private WebhookNotifier webhookNotifier;
+    private IpStore banStore;
+    private BlocklistStore blocklistStore;
+    private IpFilterListener filterListener;
+    private volatile HandshakeFilterListener handshakeListener;
+    private final FilterMetrics metrics = new FilterMetrics();
 
-    private boolean rateLimitEnabled;
-    private long rateLimitWindowMillis;
-    private int rateLimitMaxAttempts;
-    private String rateLimitMessage;
-
-    private boolean failsafeDenyAll;
-    private String failsafeMessage;
-
-    private boolean logDenied;
-    private boolean logDeniedToFile;
-    private String deniedLogFileName;
-
-    private boolean webhookEnabled;
-    private String webhookUrl;
-    private boolean webhookOnDenied;
-    private boolean webhookOnRateLimit;
-    private boolean webhookOnFailsafe;
-    private int webhookTimeoutMs;
-
-    private String proxyMode;
-    private Set<String> trustedForwardedIps;
+    // Everything the login path reads is swapped in with one write on reload.
+    private volatile FilterRuntime runtime;
+    private volatile boolean filteringEnabled;
+    private MetricsHttpServer metricsServer;
 
     @Override
     public void onEnable() {
         saveDefaultConfig();
+        blocklistStore = new BlocklistStore(getDataFolder(), getLogger());
         loadSettings();
 
         ipStore = new IpStore(this);
+        ipStore.configureVerdictCache(getSettings().getVerdictCacheSize());
         ipStore.load();
         if (!ipStore.isAvailable()) {
             getLogger().warning("Whitelist unavailable: " + ipStore.getLastError());
         }
+        banStore = new IpStore(getDataFolder(), getLogger(), "bans");
+        banStore.load();
+        if (!banStore.isAvailable()) {
+            getLogger().warning("Ban list unavailable: " + banStore.getLastError());
+        }
 
-        getServer().getPluginManager().registerEvents(new IpFilterListener(this, ipStore), this);
+        filterListener = new IpFilterListener(this, ipStore);
+        getServer().getPluginManager().registerEvents(filterListener, this);
+        updateHandshakeListener(getSettings());
+        // Reads the runtime on every run, so a reload that replaces the limiter needs no rescheduling.
+        getServer().getScheduler().runTaskTimerAsynchronously(this, () -> {
+            FilterRuntime current = runtime;
+            current.getRateLimiter().sweep(current.getSettings().getRateLimitWindowMillis(),
+                    RATE_LIMIT_SWEEP_TICKS * 50L);
+        }, RATE_LIMIT_SWEEP_TICKS, RATE_LIMIT_SWEEP_TICKS);
+        getServer().getScheduler().runTaskTimerAsynchronously(this, () -> {
+            DenialSuppressor suppressor = runtime.getDenialSuppressor();
+            if (suppressor != null) {
+                suppressor.sweep();
+            }
+        }, RATE_LIMIT_SWEEP_TICKS, RATE_LIMIT_SWEEP_TICKS);
+        getServer().getScheduler().runTaskTimerAsynchronously(this, () -> refreshBlocklist(false),
+                BLOCKLIST_CHECK_TICKS, BLOCKLIST_CHECK_TICKS);
+        getServer().getScheduler().runTaskTimerAsynchronously(this, () -> {
+            ipStore.expire();
+            banStore.expire();
+        }, EXPIRY_TICKS, EXPIRY_TICKS);
 
         PluginCommand command = getCommand("ipf");
         if (command != null) {
             IpfCommand executor = new IpfCommand(this, ipStore);
             command.setExecutor(executor);
-            command.setTabCompleter(new IpfTabCompleter(ipStore));
+            command.setTabCompleter(new IpfTabCompleter(ipStore, banStore, getDataFolder()));
         } else {
             getLogger().severe("Command 'ipf' not found in plugin.yml");
         }
     }
 
-    public void loadSettings() {
-        rateLimitEnabled = getConfig().getBoolean("ratelimit.enabled", true);
-        int windowSeconds = Math.max(1, getConfig().getInt("ratelimit.window-seconds", 10));
-        rateLimitWindowMillis = windowSeconds * 1000L;
-        rateLimitMaxAttempts = Math.max(1, getConfig().getInt("ratelimit.max-attempts", 5));
-        rateLimitMessage = getConfig().getString("ratelimit.message",
-                "&cToo many connection attempts. Try again later.");
-
-        String failsafeMode = getConfig().getString("failsafe.mode", "DENY_ALL").toUpperCase(Locale.ROOT);
-        failsafeDenyAll = "DENY_ALL".equals(failsafeMode);
-        failsafeMessage = getConfig().getString("failsafe.message", "&cWhitelist unavailable. Try again later.");
-
-        logDenied = getConfig().getBoolean("logging.denied", true);
-        logDeniedToFile = getConfig().getBoolean("logging.denied-to-file", true);
-        deniedLogFileName = getConfig().getString("logging.file-name", "denied.log");
-
-        webhookEnabled = getConfig().getBoolean("webhook.enabled", false);
-        webhookUrl = getConfig().getString("webhook.url", "");
-        webhookOnDenied = getConfig().getBoolean("webhook.on-denied", true);
-        webhookOnRateLimit = getConfig().getBoolean("webhook.on-ratelimit", true);
-        webhookOnFailsafe = getConfig().getBoolean("webhook.on-failsafe", true);
-        webhookTimeoutMs = Math.max(500, getConfig().getInt("webhook.timeout-ms", 3000));
-
-        proxyMode = getConfig().getString("proxy.mode", "DIRECT").toUpperCase(Locale.ROOT);
-        trustedForwardedIps = new HashSet<>();
-        for (String entry : getConfig().getStringList("proxy.trusted-forwarded-ips")) {
-            if (entry == null || entry.isBlank()) {
-                continue;
-            }
-            trustedForwardedIps.add(entry.trim());
+    @Override
+    public void onDisable() {
+        if (metricsServer != null) {
+            metricsServer.close();
+            metricsServer = null;
         }
-        if (!"DIRECT".equals(proxyMode) && trustedForwardedIps.isEmpty()) {
-            getLogger().warning("Proxy mode is enabled but proxy.trusted-forwarded-ips is empty. " +
-                    "Falling back to DIRECT behavior until trusted proxies are configured.");
+        FilterRuntime current = runtime;
+        if (current != null && current.getDenialSuppressor() != null) {
+            current.getDenialSuppressor().flush();
+        }
+        if (ipStore != null) {
+            ipStore.close();
+        }
+        if (banStore != null) {
+            banStore.close();
+        }
+        if (current != null) {
+            if (current.getDeniedLogWriter() != null) {
+                current.getDeniedLogWriter().close();
+            }
+            current.getWebhookNotifier().close();
         }
-
-        rateLimiter = new RateLimiter(RATE_LIMIT_CLEANUP_THRESHOLD);
-        webhookNotifier = new WebhookNotifier(getLogger());
-    }
-
-    public boolean isFilteringEnabled() {
-        return getConfig().getBoolean("enabled", true);
     }
 
-    public void setFilteringEnabled(boolean enabled) {
-        getConfig().set("enabled", enabled);
-        saveConfig();
-    }
+    public void loadSettings() {
+        FilterSettings loaded = FilterSettings.load(getConfig(), getLogger());
+        FilterRuntime old = runtime;
+        FilterSettings previous = old == null ? null : old.getSettings();
+
+        // Limiter state survives a reload unless the engine itself, or for subnets the levels, change.
+        RateLimiter rateLimiter = old == null
+                || previous.getRateLimitTableSlots() != loaded.getRateLimitTableSlots()
+                || previous.getRateLimitMode() != loaded.getRateLimitMode()
+                ? new RateLimiter(loaded.getRateLimitTableSlots(), loaded.getRateLimitMode())
+                : old.getRateLimiter();
+        SubnetRateLimiter subnetRateLimiter = null;
+        if (loaded.isSubnetRateLimitEnabled()) {
+            subnetRateLimiter = old == null || old.getSubnetRateLimiter() == null
+                    || previous.getSubnetTableSlots() != loaded.getSubnetTableSlots()
+                    || previous.getRateLimitMode() != loaded.getRateLimitMode()
+                    || !previous.getSubnetLevels().equals(loaded.getSubnetLevels())
+                    ? new SubnetRateLimiter(loaded.getSubnetTableSlots(), loaded.getRateLimitMode(),
+                            loaded.getSubnetLevels())
+                    : old.getSubnetRateLimiter();
+        }
+        PenaltyBox penaltyBox = loaded.isPenaltyEnabled()
+                ? new PenaltyBox(loaded.getPenaltyTableSlots(), loaded.getPenaltyViolations(),
+                        loaded.getPenaltyWindowMillis(), loaded.getPenaltyBaseBanMillis(),
+                        loaded.getPenaltyMaxBanMillis())
+                : null;
+        DenialSuppressor suppressor = loaded.getSuppressRepeatsMillis() > 0
+                ? new DenialSuppressor(loaded.getSuppressTableSize(), loaded.getSuppressRepeatsMillis(),
+                        this::reportSuppressed)
+                : null;
+        DeniedLogWriter oldWriter = old == null ? null : old.getDeniedLogWriter();
+        DeniedLogWriter writer = loaded.isLogDeniedToFile()
+                ? new DeniedLogWriter(new File(getDataFolder(), loaded.getDeniedLogFileName()), getLogger(),
+                        loaded.getDeniedLogQueueSize(), loaded.getDeniedLogRotateBytes(),
+                        loaded.getDeniedLogRotateMillis(), loaded.isDeniedLogCompress(), oldWriter)
+                : null;
+        WebhookNotifier webhook = new WebhookNotifier(getLogger(),
+                loaded.isWebhookEnabled() ? loaded.getWebhookUrl() : null,
+                loaded.getWebhookTimeoutMs(), loaded.getWebhookQueueSize(), loaded.getWebhookFlushIntervalMillis(),
+                loaded.getWebhookMaxBatch(), loaded.getWebhookMaxInFlight(), loaded.getWebhookMaxRetries());
+
+        filteringEnabled = getConfig().getBoolean("enabled", true);
+        runtime = new FilterRuntime(loaded, rateLimiter, subnetRateLimiter, penaltyBox, suppressor, writer,
+                webhook);
+
+        // Replaced components are retired only once logins pick up the new runtime. A replaced denied log
+        // writer is closed by its successor, which drains it before writing.
+        if (old != null) {
+            if (penaltyBox != null && old.getPenaltyBox() != null) {
+                penaltyBox.takeOver(old.getPenaltyBox());
+            }
+            if (old.getDenialSuppressor() != null) {
+                old.getDenialSuppressor().flush();
+            }
+            if (oldWriter != null && writer == null) {
+                oldWriter.close();
+            }
+            old.getWebhookNotifier().close();
+        }
+        if (ipStore != null) {
+            ipStore.configureVerdictCache(loaded.getVerdictCacheSize());
+        }
 
-    public String resolveClientIp(AsyncPlayerPreLoginEvent event) {
-        // The plugin never parses forwarded headers. Paper/Proxy forwarding must be configured separately.
-        return event.getAddress().getHostAddress();
-    }
+        if (metricsServer != null) {
+            metricsServer.close();
+            metricsServer = null;
+        }
+        if (loaded.isMetricsHttpEnabled()) {
+            String bind = loaded.getMetricsHttpBind();
+            int port = loaded.getMetricsHttpPort();
+            try {
+                metricsServer = new MetricsHttpServer(bind, port, this::renderPrometheusMetrics);
+            } catch (IOException | RuntimeException e) {
+                getLogger().warning("Failed to start metrics endpoint on " + bind + ":" + port + ": "
+                        + e.getMessage());
+            }
+        }
 
-    public boolean isProxyModeEnabled() {
-        return !"DIRECT".equals(proxyMode);
+        updateHandshakeListener(loaded);
+        getServer().getScheduler().runTaskAsynchronously(this, () -> refreshBlocklist(true));
     }
 
-    public boolean hasTrustedForwardedIps() {
-        return !trustedForwardedIps.isEmpty();
+    // Paper routes every handshake through the event once a listener exists, so it is only registered when on.
+    private void updateHandshakeListener(FilterSettings loaded) {
+        if (filterListener == null) {
+            return;
+        }
+        HandshakeFilterListener current = handshakeListener;
+        if (loaded.isEarlyFilterEnabled() && current == null) {
+            HandshakeFilterListener listener = new HandshakeFilterListener(this, filterListener);
+            getServer().getPluginManager().registerEvents(listener, this);
+            handshakeListener = listener;
+        } else if (!loaded.isEarlyFilterEnabled() && current != null) {
+            handshakeListener = null;
+            HandlerList.unregisterAll(current);
+        }
     }
 
-    public boolean isTrustedProxy(String ip) {
-        return trustedForwardedIps.contains(ip);
+    /**
+     * Whether attempts are being filtered, and counted against the rate limits, at the handshake.
+     */
+    public boolean isHandshakeFilterActive() {
+        HandshakeFilterListener listener = handshakeListener;
+        return listener != null && !listener.isProxyLogicActive();
     }
 
-    public String getProxyMode() {
-        return proxyMode;
+    private void refreshBlocklist(boolean force) {
+        BlocklistStore store = blocklistStore;
+        FilterSettings current = getSettings();
+        if (store == null) {
+            return;
+        }
+        if (!current.isBlocklistEnabled()) {
+            store.clear();
+            return;
+        }
+        store.refresh(current.getBlocklistFiles(), current.getBlocklistRefreshMillis(), force);
     }
 
-    public int getTrustedForwardedIpsCount() {
-        return trustedForwardedIps.size();
+    public FilterSettings getSettings() {
+        return runtime.getSettings();
     }
 
-    public boolean isRateLimitEnabled() {
-        return rateLimitEnabled;
+    public FilterRuntime getRuntime() {
+        return runtime;
     }
 
-    public long getRateLimitWindowMillis() {
-        return rateLimitWindowMillis;
+    public FilterMetrics getMetrics() {
+        return metrics;
     }
 
-    public int getRateLimitMaxAttempts() {
-        return rateLimitMaxAttempts;
+    public String renderPrometheusMetrics() {
+        StringBuilder out = new StringBuilder(4096);
+        FilterRuntime current = runtime;
+        metrics.appendPrometheus(out);
+        IpStore store = ipStore;
+        if (store != null) {
+            FilterMetrics.appendMetric(out, "betteripfilter_whitelist_entries", "Whitelist entries.", "gauge",
+                    store.size());
+            FilterMetrics.appendMetric(out, "betteripfilter_verdict_cache_hits_total", "IPv4 verdict cache hits.",
+                    "counter", store.getVerdictCacheHits());
+            FilterMetrics.appendMetric(out, "betteripfilter_verdict_cache_misses_total",
+                    "IPv4 verdict cache misses.", "counter", store.getVerdictCacheMisses());
+        }
+        IpStore bans = banStore;
+        if (bans != null) {
+            FilterMetrics.appendMetric(out, "betteripfilter_ban_entries", "Ban list entries.", "gauge", bans.size());
+        }
+        BlocklistStore blocklist = blocklistStore;
+        if (blocklist != null) {
+            FilterMetrics.appendMetric(out, "betteripfilter_blocklist_entries", "Blocklist entries.", "gauge",
+                    blocklist.size());
+        }
+        RateLimiter limiter = current.getRateLimiter();
+        FilterMetrics.appendMetric(out, "betteripfilter_ratelimit_keys", "Addresses tracked by the rate limiter.",
+                "gauge", limiter.trackedKeys());
+        FilterMetrics.appendMetric(out, "betteripfilter_ratelimit_evictions_total",
+                "Rate limit table evictions.", "counter", limiter.tableEvictions());
+        FilterMetrics.appendMetric(out, "betteripfilter_ratelimit_expired_total",
+                "Rate limit entries expired by the sweeper.", "counter", limiter.getExpiredTotal());
+        PenaltyBox box = current.getPenaltyBox();
+        if (box != null) {
+            FilterMetrics.appendMetric(out, "betteripfilter_penalty_box_active", "Addresses in the penalty box.",
+                    "gauge", box.activeCount());
+            FilterMetrics.appendMetric(out, "betteripfilter_penalty_box_bans_total",
+                    "Penalty box bans started.", "counter", box.getBanCount());
+        }
+        DeniedLogWriter writer = current.getDeniedLogWriter();
+        if (writer != null) {
+            FilterMetrics.appendMetric(out, "betteripfilter_denied_log_queue_depth", "Lines waiting for denied.log.",
+                    "gauge", writer.getQueueDepth());
+            FilterMetrics.appendMetric(out, "betteripfilter_denied_log_dropped_total",
+                    "Lines dropped because the denied.log queue was full.", "counter", writer.getOverflowCount());
+        }
+        WebhookNotifier webhook = current.getWebhookNotifier();
+        if (current.getSettings().isWebhookConfigured()) {
+            FilterMetrics.appendMetric(out, "betteripfilter_webhook_queue_depth", "Events waiting for the webhook.",
+                    "gauge", webhook.getQueueDepth());
+            FilterMetrics.appendMetric(out, "betteripfilter_webhook_delivered_total", "Webhook events delivered.",
+                    "counter", webhook.getDelivered());
+            FilterMetrics.appendMetric(out, "betteripfilter_webhook_dropped_total",
+                    "Webhook events dropped from a full queue.", "counter", webhook.getDropped());
+            FilterMetrics.appendMetric(out, "betteripfilter_webhook_failed_total",
+                    "Webhook events given up after retries.", "counter", webhook.getFailed());
+        }
+        return out.toString();
     }
 
-    public String getFailsafeMode() {
-        return failsafeDenyAll ? "DENY_ALL" : "ALLOW_ALL";
+    public boolean isFilteringEnabled() {
+        return filteringEnabled;
     }
 
-    public String getRateLimitMessage() {
-        return rateLimitMessage;
+    public void setFilteringEnabled(boolean enabled) {
+        filteringEnabled = enabled;
+        getConfig().set("enabled", enabled);
+        saveConfig();
     }
 
-    public boolean isFailsafeDenyAll() {
-        return failsafeDenyAll;
+    public ClientAddress resolveClientAddress(AsyncPlayerPreLoginEvent event) {
+        // The plugin never parses forwarded headers. Paper/Proxy forwarding must be configured separately.
+        return ClientAddress.of(event.getAddress());
     }
 
-    public String getFailsafeMessage() {
-        return failsafeMessage;
+    public boolean isTrustedProxy(ClientAddress address) {
+        return getSettings().getTrustedProxies().contains(address);
     }
 
     public RateLimiter getRateLimiter() {
-        return rateLimiter;
+        return runtime.getRateLimiter();
     }
 
-    public boolean isWebhookEnabled() {
-        return webhookEnabled;
+    public IpStore getBanStore() {
+        return banStore;
     }
 
-    public boolean isWebhookConfigured() {
-        return webhookEnabled && webhookUrl != null && !webhookUrl.isBlank();
+    public BlocklistStore getBlocklistStore() {
+        return blocklistStore;
     }
 
-    public void handleDenied(DenyReason reason, String name, String ip) {
-        if (logDenied) {
+    public void handleDenied(FilterRuntime current, DenyReason reason, String name, ClientAddress address) {
+        DenialSuppressor suppressor = current.getDenialSuppressor();
+        if (suppressor != null && !suppressor.admit(reason, name, address)) {
+            return;
+        }
+        FilterSettings settings = current.getSettings();
+        // The textual address is only built here, once a denial is actually reported.
+        String ip = address == null ? null : address.toString();
+        if (settings.isLogDenied() || settings.isLogDeniedToFile()) {
             String line = formatDeniedLine(reason, name, ip);
-            getLogger().info(line);
-            if (logDeniedToFile) {
-                appendDeniedLine(line);
+            if (settings.isLogDenied()) {
+                getLogger().info(line);
             }
-        } else if (logDeniedToFile) {
-            appendDeniedLine(formatDeniedLine(reason, name, ip));
+            appendDeniedLine(current, line);
         }
 
-        if (shouldSendWebhook(reason)) {
-            webhookNotifier.send(webhookUrl, webhookTimeoutMs, reason, name, ip);
+        if (shouldSendWebhook(settings, reason)) {
+            current.getWebhookNotifier().send(reason, name, ip);
         }
     }
 
-    private boolean shouldSendWebhook(DenyReason reason) {
-        if (!webhookEnabled || webhookUrl == null || webhookUrl.isBlank()) {
+    private void reportSuppressed(DenyReason reason, String name, ClientAddress address, int suppressed,
+                                  long windowMillis) {
+        FilterRuntime current = runtime;
+        FilterSettings settings = current.getSettings();
+        if (!settings.isLogDenied() && !settings.isLogDeniedToFile()) {
+            return;
+        }
+        String line = formatDeniedLine(reason, name, address.toString()) + " suppressed " + suppressed
+                + " repeats in " + (windowMillis / 1000L) + "s";
+        if (settings.isLogDenied()) {
+            getLogger().info(line);
+        }
+        appendDeniedLine(current, line);
+    }
+
+    private boolean shouldSendWebhook(FilterSettings current, DenyReason reason) {
+        if (!current.isWebhookConfigured()) {
             return false;
         }
         return switch (reason) {
-            case NOT_WHITELISTED -> webhookOnDenied;
-            case RATE_LIMIT -> webhookOnRateLimit;
-            case FAILSAFE -> webhookOnFailsafe;
-            case PROXY_NOT_TRUSTED -> webhookOnDenied;
+            case NOT_WHITELISTED, BLOCKLISTED, BANNED -> current.isWebhookOnDenied();
+            case RATE_LIMIT, SUBNET_RATE_LIMIT, PENALIZED -> current.isWebhookOnRateLimit();
+            case FAILSAFE -> current.isWebhookOnFailsafe();
+            case PROXY_NOT_TRUSTED -> current.isWebhookOnDenied();
         };
     }
 
@@ -218,24 +377,15 @@ public class BetterIpFilterPlugin extends JavaPlugin {
         return Instant.now().toString() + " " + reason.name() + " " + safeName + " " + safeIp;
     }
 
-    private void appendDeniedLine(String line) {
-        if (!getDataFolder().exists() && !getDataFolder().mkdirs()) {
-            getLogger().warning("Failed to create plugin data folder for denied log.");
-            return;
-        }
-        File logFile = new File(getDataFolder(), deniedLogFileName);
-        try (BufferedWriter writer = Files.newBufferedWriter(logFile.toPath(),
-                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
-            writer.write(line);
-            writer.newLine();
-        } catch (IOException e) {
-            getLogger().warning("Failed to write denied log: " + e.getMessage());
+    private static void appendDeniedLine(FilterRuntime current, String line) {
+        DeniedLogWriter writer = current.getDeniedLogWriter();
+        if (writer != null) {
+            writer.offer(line);
         }
     }
 
-    @SuppressWarnings("deprecation")
     public String color(String message) {
-        return ChatColor.translateAlternateColorCodes('&', message);
+        return FilterSettings.render(message);
     }
 
     public String msg(String key) {
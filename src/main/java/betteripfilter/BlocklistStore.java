@@ -0,0 +1,149 @@
+package betteripfilter;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Deny list compiled from one or more local feed files (FireHOL {@code .netset} style, one exact, CIDR or range
+ * entry per line, {@code #} comments allowed). Feeds are streamed line by line into a fresh {@link AddressSet}
+ * that replaces the previous one with a single volatile write, so lookups never wait for a reload. A reload
+ * that finds a feed missing or fails to read it keeps the previous set.
+ */
+public class BlocklistStore {
+    private final Path dataFolder;
+    private final Logger logger;
+    private final Object reloadLock = new Object();
+    private volatile AddressSet snapshot = AddressSet.empty();
+    private volatile long invalidCount;
+    private volatile long lastLoadNanos;
+    private volatile String lastError;
+    private long loadedSignature;
+    private long lastCheckMillis;
+
+    public BlocklistStore(File dataFolder, Logger logger) {
+        this.dataFolder = dataFolder.toPath().toAbsolutePath().normalize();
+        this.logger = logger;
+    }
+
+    public boolean contains(ClientAddress address) {
+        return snapshot.contains(address);
+    }
+
+    /**
+     * Re-reads the feeds if {@code force} is set, or if {@code refreshMillis} passed since the last check and a
+     * feed changed size or modification time. Blocks; call off the main thread.
+     */
+    public void refresh(List<String> fileNames, long refreshMillis, boolean force) {
+        synchronized (reloadLock) {
+            long now = System.currentTimeMillis();
+            if (!force && now - lastCheckMillis < refreshMillis) {
+                return;
+            }
+            lastCheckMillis = now;
+            long signature = signature(fileNames);
+            if (!force && signature == loadedSignature) {
+                return;
+            }
+            long started = System.nanoTime();
+            AddressSet.Builder builder = AddressSet.builder();
+            long invalid = 0;
+            for (String fileName : fileNames) {
+                Path path = resolve(fileName);
+                if (path == null) {
+                    lastError = "Blocklist feed must be inside the plugin folder: " + fileName;
+                    logger.warning(lastError);
+                    return;
+                }
+                if (!Files.isRegularFile(path)) {
+                    // Often a feed caught mid-update; publishing the rest would silently drop its entries.
+                    lastError = "Blocklist feed not found: " + path;
+                    logger.warning(lastError);
+                    return;
+                }
+                try {
+                    invalid += read(path, builder);
+                } catch (IOException e) {
+                    lastError = "Failed to read blocklist feed " + fileName + ": " + e.getMessage();
+                    logger.warning(lastError);
+                    return;
+                }
+            }
+            snapshot = builder.build();
+            invalidCount = invalid;
+            loadedSignature = signature;
+            lastLoadNanos = System.nanoTime() - started;
+            lastError = null;
+            if (invalid > 0) {
+                logger.warning("Ignored " + invalid + " invalid blocklist entries.");
+            }
+        }
+    }
+
+    /**
+     * Drops every entry, e.g. when the blocklist is disabled on reload.
+     */
+    public void clear() {
+        synchronized (reloadLock) {
+            snapshot = AddressSet.empty();
+            invalidCount = 0;
+            loadedSignature = 0;
+            lastCheckMillis = 0;
+        }
+    }
+
+    public int size() {
+        return snapshot.size();
+    }
+
+    public long getInvalidCount() {
+        return invalidCount;
+    }
+
+    public long getLastLoadNanos() {
+        return lastLoadNanos;
+    }
+
+    public String getLastError() {
+        return lastError;
+    }
+
+    private static long read(Path path, AddressSet.Builder builder) throws IOException {
+        long invalid = 0;
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int commentIndex = line.indexOf('#');
+                String value = (commentIndex >= 0 ? line.substring(0, commentIndex) : line).trim();
+                if (!value.isEmpty() && !builder.add(value)) {
+                    invalid++;
+                }
+            }
+        }
+        return invalid;
+    }
+
+    private Path resolve(String fileName) {
+        Path path = dataFolder.resolve(fileName).toAbsolutePath().normalize();
+        return path.startsWith(dataFolder) ? path : null;
+    }
+
+    private long signature(List<String> fileNames) {
+        long signature = 1;
+        for (String fileName : fileNames) {
+            Path path = resolve(fileName);
+            File file = path == null ? null : path.toFile();
+            long modified = file == null ? 0 : file.lastModified();
+            long length = file == null ? 0 : file.length();
+            signature = signature * 31 + fileName.hashCode();
+            signature = signature * 31 + modified;
+            signature = signature * 31 + length;
+        }
+        return signature;
+    }
+}
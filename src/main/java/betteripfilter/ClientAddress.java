@@ -0,0 +1,115 @@
+package betteripfilter;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+
+/**
+ * A client address parsed once per login: IPv4 as an unsigned int in {@link #low()}, IPv6 as two longs.
+ * The textual form is only built when something asks for it, e.g. when a denial is logged.
+ */
+public final class ClientAddress {
+    private final boolean ipv6;
+    private final long high;
+    private final long low;
+    private String text;
+
+    private ClientAddress(boolean ipv6, long high, long low) {
+        this.ipv6 = ipv6;
+        this.high = high;
+        this.low = low;
+    }
+
+    public static ClientAddress ipv4(int address) {
+        return new ClientAddress(false, 0L, Integer.toUnsignedLong(address));
+    }
+
+    public static ClientAddress ipv6(long high, long low) {
+        return new ClientAddress(true, high, low);
+    }
+
+    public static ClientAddress of(InetAddress address) {
+        byte[] bytes = address.getAddress();
+        if (address instanceof Inet4Address || bytes.length == 4) {
+            return ipv4(((bytes[0] & 0xFF) << 24) | ((bytes[1] & 0xFF) << 16) | ((bytes[2] & 0xFF) << 8)
+                    | (bytes[3] & 0xFF));
+        }
+        long high = 0;
+        long low = 0;
+        for (int i = 0; i < 8; i++) {
+            high = (high << 8) | (bytes[i] & 0xFF);
+            low = (low << 8) | (bytes[i + 8] & 0xFF);
+        }
+        // Normalize IPv4-mapped addresses so they match IPv4 entries and share IPv4 rate limit keys.
+        if (high == 0 && (low >>> 32) == 0xFFFFL) {
+            return ipv4((int) low);
+        }
+        return ipv6(high, low);
+    }
+
+    /**
+     * Parses a literal IPv4 or IPv6 address (IPv6 zone ids are ignored), or returns null.
+     */
+    public static ClientAddress parse(String value) {
+        if (value == null) {
+            return null;
+        }
+        String trimmed = value.trim();
+        if (trimmed.indexOf(':') < 0) {
+            long ipv4 = IpAddresses.parseIpv4(trimmed);
+            return ipv4 < 0 ? null : ipv4((int) ipv4);
+        }
+        int zoneIndex = trimmed.indexOf('%');
+        long[] parsed = new long[2];
+        if (!IpAddresses.parseIpv6(zoneIndex >= 0 ? trimmed.substring(0, zoneIndex) : trimmed, parsed)) {
+            return null;
+        }
+        if (parsed[0] == 0 && (parsed[1] >>> 32) == 0xFFFFL) {
+            return ipv4((int) parsed[1]);
+        }
+        return ipv6(parsed[0], parsed[1]);
+    }
+
+    public boolean isIpv6() {
+        return ipv6;
+    }
+
+    public int ipv4() {
+        return (int) low;
+    }
+
+    public long high() {
+        return high;
+    }
+
+    public long low() {
+        return low;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof ClientAddress)) {
+            return false;
+        }
+        ClientAddress that = (ClientAddress) other;
+        return ipv6 == that.ipv6 && high == that.high && low == that.low;
+    }
+
+    @Override
+    public int hashCode() {
+        long mixed = (high * 0x9E3779B97F4A7C15L) ^ low;
+        return (int) (mixed ^ (mixed >>> 32)) * 0x9E3779B9;
+    }
+
+    @Override
+    public String toString() {
+        String result = text;
+        if (result == null) {
+            result = ipv6 ? IpAddresses.formatIpv6(high, low) : IpAddresses.intToIp((int) low);
+            text = result;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,180 @@
+package betteripfilter;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary image of a compiled whitelist snapshot, stored next to {@code ips.yml}. The image records the
+ * length and modification time of the YAML and the length of the journal it was compiled from, and is
+ * only used while all of them still match.
+ * <p>
+ * The lookup structures read from an image are views into the mapping, so a load allocates no copy of them.
+ * The file is only ever replaced by an atomic rename, never rewritten in place, so a live mapping stays valid.
+ * The expiries of timed entries follow the lookup structures, so they can be scheduled without parsing YAML.
+ */
+final class CompiledWhitelistCache {
+    private static final int MAGIC = 0x42495046; // "BIPF"
+    private static final int VERSION = 3;
+    private static final int HEADER_BYTES = 4 + 4 + 8 + 8 + 8 + 4;
+
+    private final File file;
+
+    CompiledWhitelistCache(File file) {
+        this.file = file;
+    }
+
+    Image read(File source, long journalSize) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_BYTES) {
+                return null;
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                return null;
+            }
+            if (buffer.getLong() != source.length() || buffer.getLong() != source.lastModified()
+                    || buffer.getLong() != journalSize) {
+                return null;
+            }
+            int entryCount = buffer.getInt();
+            IntHashSet exactIps = IntHashSet.readFrom(buffer);
+            IntervalIndex intervals = IntervalIndex.readFrom(buffer);
+            Ipv6Trie ipv6Prefixes = Ipv6Trie.readFrom(buffer);
+            Map<String, Long> expiries = readExpiries(buffer);
+            return new Image(entryCount, exactIps, intervals, ipv6Prefixes, expiries);
+        } catch (IOException | RuntimeException e) {
+            // A truncated or foreign file is treated as a cache miss; the YAML remains authoritative.
+            return null;
+        }
+    }
+
+    void write(File source, long journalSize, int entryCount, IntHashSet exactIps, IntervalIndex intervals,
+               Ipv6Trie ipv6Prefixes, Map<String, Long> expiries) throws IOException {
+        List<byte[]> timedKeys = new ArrayList<>(expiries.size());
+        long[] timedExpiries = new long[expiries.size()];
+        long size = (long) HEADER_BYTES + exactIps.serializedSize() + intervals.serializedSize()
+                + ipv6Prefixes.serializedSize() + Integer.BYTES;
+        for (Map.Entry<String, Long> timed : expiries.entrySet()) {
+            byte[] key = timed.getKey().getBytes(StandardCharsets.UTF_8);
+            timedExpiries[timedKeys.size()] = timed.getValue();
+            timedKeys.add(key);
+            size += Integer.BYTES + key.length + Long.BYTES;
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Compiled whitelist too large: " + size + " bytes");
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) size);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putLong(source.length());
+        buffer.putLong(source.lastModified());
+        buffer.putLong(journalSize);
+        buffer.putInt(entryCount);
+        exactIps.writeTo(buffer);
+        intervals.writeTo(buffer);
+        ipv6Prefixes.writeTo(buffer);
+        buffer.putInt(timedKeys.size());
+        for (int i = 0; i < timedKeys.size(); i++) {
+            buffer.putInt(timedKeys.get(i).length);
+            buffer.put(timedKeys.get(i));
+            buffer.putLong(timedExpiries[i]);
+        }
+        buffer.flip();
+
+        Path target = file.toPath();
+        Path temp = target.resolveSibling(file.getName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            // The header only proves which YAML the image came from, not that the body reached the disk.
+            channel.force(true);
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    void delete() {
+        if (file.exists() && !file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+
+    private static Map<String, Long> readExpiries(ByteBuffer buffer) {
+        int count = buffer.getInt();
+        if (count < 0 || count > buffer.remaining() / (Integer.BYTES + Long.BYTES)) {
+            throw new IllegalStateException("Corrupt expiry table");
+        }
+        Map<String, Long> expiries = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            int length = buffer.getInt();
+            if (length < 0 || length > buffer.remaining()) {
+                throw new IllegalStateException("Corrupt expiry table");
+            }
+            byte[] key = new byte[length];
+            buffer.get(key);
+            expiries.put(new String(key, StandardCharsets.UTF_8), buffer.getLong());
+        }
+        return expiries;
+    }
+
+    static void putInts(ByteBuffer buffer, IntBuffer values) {
+        buffer.asIntBuffer().put(values.duplicate().clear());
+        buffer.position(buffer.position() + values.capacity() * Integer.BYTES);
+    }
+
+    // Views share the buffer's memory, so structures read from a mapped image are used where they lie.
+    static IntBuffer intView(ByteBuffer buffer, int length) {
+        ByteBuffer slice = buffer.slice();
+        slice.limit(Math.multiplyExact(length, Integer.BYTES));
+        buffer.position(buffer.position() + slice.limit());
+        return slice.asIntBuffer();
+    }
+
+    static void putLongs(ByteBuffer buffer, LongBuffer values) {
+        buffer.asLongBuffer().put(values.duplicate().clear());
+        buffer.position(buffer.position() + values.capacity() * Long.BYTES);
+    }
+
+    static LongBuffer longView(ByteBuffer buffer, int length) {
+        ByteBuffer slice = buffer.slice();
+        slice.limit(Math.multiplyExact(length, Long.BYTES));
+        buffer.position(buffer.position() + slice.limit());
+        return slice.asLongBuffer();
+    }
+
+    static final class Image {
+        final int entryCount;
+        final IntHashSet exactIps;
+        final IntervalIndex intervals;
+        final Ipv6Trie ipv6Prefixes;
+        final Map<String, Long> expiries;
+
+        private Image(int entryCount, IntHashSet exactIps, IntervalIndex intervals, Ipv6Trie ipv6Prefixes,
+                      Map<String, Long> expiries) {
+            this.entryCount = entryCount;
+            this.exactIps = exactIps;
+            this.intervals = intervals;
+            this.ipv6Prefixes = ipv6Prefixes;
+            this.expiries = expiries;
+        }
+    }
+}
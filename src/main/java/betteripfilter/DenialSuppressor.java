@@ -0,0 +1,147 @@
+package betteripfilter;
+
+/**
+ * Coalesces repeated denials of the same address for the same reason. The first denial in a window is
+ * reported; repeats within the window are only counted and reported later as one summary, either when the
+ * next window starts or when {@link #sweep()} finds the window over. State lives in preallocated arrays
+ * guarded by striped locks, and a full stripe evicts its oldest window after summarizing it.
+ */
+public class DenialSuppressor {
+    private static final int WAYS = 8;
+    private static final int LOCK_STRIPES = 64;
+
+    private final long windowMillis;
+    private final SummarySink sink;
+    private final int stripeMask;
+    private final Object[] locks = new Object[LOCK_STRIPES];
+    private final ClientAddress[] addresses;
+    private final DenyReason[] reasons;
+    private final String[] names;
+    private final long[] windowStarts;
+    private final int[] suppressed;
+    private final long originNanos = System.nanoTime();
+
+    public DenialSuppressor(int slots, long windowMillis, SummarySink sink) {
+        int stripes = Integer.highestOneBit(Math.max(1, Math.min(slots, 1 << 20) / WAYS));
+        int capacity = stripes * WAYS;
+        this.windowMillis = windowMillis;
+        this.sink = sink;
+        this.stripeMask = stripes - 1;
+        this.addresses = new ClientAddress[capacity];
+        this.reasons = new DenyReason[capacity];
+        this.names = new String[capacity];
+        this.windowStarts = new long[capacity];
+        this.suppressed = new int[capacity];
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    /**
+     * Records one denial and returns true if it should be reported now, false if it was folded into the
+     * current window's summary.
+     */
+    public boolean admit(DenyReason reason, String name, ClientAddress address) {
+        if (address == null) {
+            return true;
+        }
+        long now = now();
+        int stripe = (address.hashCode() * 31 + reason.ordinal()) * 0x9E3779B9 >>> 7 & stripeMask;
+        int base = stripe * WAYS;
+        DenyReason summaryReason;
+        String summaryName;
+        ClientAddress summaryAddress;
+        int summaryCount;
+        synchronized (locks[stripe & (LOCK_STRIPES - 1)]) {
+            int slot = -1;
+            int oldest = base;
+            for (int i = base; i < base + WAYS; i++) {
+                if (addresses[i] == null) {
+                    if (slot < 0) {
+                        slot = i;
+                    }
+                    continue;
+                }
+                if (reasons[i] == reason && addresses[i].equals(address)) {
+                    if (now - windowStarts[i] < windowMillis) {
+                        suppressed[i]++;
+                        names[i] = name;
+                        return false;
+                    }
+                    slot = i;
+                    break;
+                }
+                if (windowStarts[i] < windowStarts[oldest] || addresses[oldest] == null) {
+                    oldest = i;
+                }
+            }
+            if (slot < 0) {
+                slot = oldest;
+            }
+            summaryReason = reasons[slot];
+            summaryName = names[slot];
+            summaryAddress = addresses[slot];
+            summaryCount = summaryAddress == null ? 0 : suppressed[slot];
+            addresses[slot] = address;
+            reasons[slot] = reason;
+            names[slot] = name;
+            windowStarts[slot] = now;
+            suppressed[slot] = 0;
+        }
+        if (summaryCount > 0) {
+            sink.summary(summaryReason, summaryName, summaryAddress, summaryCount, windowMillis);
+        }
+        return true;
+    }
+
+    /**
+     * Summarizes and clears every window that is over. Meant to run periodically off the login threads.
+     */
+    public void sweep() {
+        drain(false);
+    }
+
+    /**
+     * Summarizes and clears every window, finished or not; used before the suppressor is discarded.
+     */
+    public void flush() {
+        drain(true);
+    }
+
+    private void drain(boolean all) {
+        long now = now();
+        for (int stripe = 0; stripe <= stripeMask; stripe++) {
+            int base = stripe * WAYS;
+            for (int i = base; i < base + WAYS; i++) {
+                DenyReason summaryReason;
+                String summaryName;
+                ClientAddress summaryAddress;
+                int summaryCount;
+                synchronized (locks[stripe & (LOCK_STRIPES - 1)]) {
+                    if (addresses[i] == null || !all && now - windowStarts[i] < windowMillis) {
+                        continue;
+                    }
+                    summaryReason = reasons[i];
+                    summaryName = names[i];
+                    summaryAddress = addresses[i];
+                    summaryCount = suppressed[i];
+                    addresses[i] = null;
+                    reasons[i] = null;
+                    names[i] = null;
+                    suppressed[i] = 0;
+                }
+                if (summaryCount > 0) {
+                    sink.summary(summaryReason, summaryName, summaryAddress, summaryCount, windowMillis);
+                }
+            }
+        }
+    }
+
+    private long now() {
+        return (System.nanoTime() - originNanos) / 1_000_000L;
+    }
+
+    public interface SummarySink {
+        void summary(DenyReason reason, String name, ClientAddress address, int suppressed, long windowMillis);
+    }
+}
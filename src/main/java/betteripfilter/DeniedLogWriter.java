@@ -0,0 +1,219 @@
+package betteripfilter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Appends denial lines to {@code denied.log} from a single background thread. Login threads only offer
+ * lines to a bounded queue; when it is full the line is dropped and counted. The writer keeps one channel
+ * open, writes whatever is queued in one batch and rotates the file by size and age, optionally gzipping
+ * rotated files.
+ * <p>
+ * A writer built on reload takes over from the previous one: its thread drains and closes the previous writer
+ * before touching the file, so logins can offer lines to it at once while only one thread ever writes.
+ */
+public class DeniedLogWriter {
+    private static final int MAX_BATCH = 1024;
+    private static final long IDLE_POLL_MILLIS = 1000L;
+    private static final long CLOSE_TIMEOUT_MILLIS = 5000L;
+    // Identity-compared marker that wakes the writer on close; FileChannel must not see an interrupt.
+    private static final String WAKE_UP = new String("");
+
+    private final File file;
+    private final Logger logger;
+    private final long maxBytes;
+    private final long rotateMillis;
+    private final boolean compressRotated;
+    private final BlockingQueue<String> queue;
+    private final LongAdder overflow = new LongAdder();
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    private DeniedLogWriter previous;
+    private FileChannel channel;
+    private long nextRotation;
+
+    /**
+     * @param maxBytes     rotate once the file reaches this size, 0 disables size rotation
+     * @param rotateMillis rotate once the file has been written for this long, 0 disables time rotation
+     * @param previous     writer being replaced, closed by this writer's thread before it writes, or null
+     */
+    public DeniedLogWriter(File file, Logger logger, int queueCapacity, long maxBytes, long rotateMillis,
+                           boolean compressRotated, DeniedLogWriter previous) {
+        this.previous = previous;
+        this.file = file;
+        this.logger = logger;
+        this.maxBytes = maxBytes;
+        this.rotateMillis = rotateMillis;
+        this.compressRotated = compressRotated;
+        this.queue = new ArrayBlockingQueue<>(Math.max(16, queueCapacity));
+        this.thread = new Thread(this::run, "Better-IP-Filter-DeniedLog");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Queues one line without blocking; returns false and counts an overflow when the queue is full.
+     */
+    public boolean offer(String line) {
+        if (!running || !queue.offer(line)) {
+            overflow.increment();
+            return false;
+        }
+        return true;
+    }
+
+    public long getOverflowCount() {
+        return overflow.sum();
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * Stops accepting lines, writes everything still queued and closes the file.
+     */
+    public void close() {
+        running = false;
+        queue.offer(WAKE_UP);
+        try {
+            thread.join(CLOSE_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        if (previous != null) {
+            previous.close();
+            previous = null;
+        }
+        List<String> batch = new ArrayList<>(MAX_BATCH);
+        while (running || !queue.isEmpty()) {
+            String first;
+            try {
+                first = queue.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                break;
+            }
+            if (first == null) {
+                rotateIfDue(0L);
+                continue;
+            }
+            batch.add(first);
+            queue.drainTo(batch, MAX_BATCH - 1);
+            batch.removeIf(line -> line == WAKE_UP);
+            if (!batch.isEmpty()) {
+                write(batch);
+                batch.clear();
+            }
+        }
+        closeChannel();
+    }
+
+    private void write(List<String> lines) {
+        StringBuilder builder = new StringBuilder(lines.size() * 64);
+        for (String line : lines) {
+            builder.append(line).append('\n');
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(builder.toString().getBytes(StandardCharsets.UTF_8));
+        try {
+            rotateIfDue(buffer.remaining());
+            if (channel == null) {
+                open();
+            }
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (IOException e) {
+            logger.warning("Failed to write denied log: " + e.getMessage());
+            closeChannel();
+        }
+    }
+
+    private void open() throws IOException {
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Failed to create " + parent);
+        }
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        nextRotation = rotateMillis > 0 ? System.currentTimeMillis() + rotateMillis : Long.MAX_VALUE;
+    }
+
+    private void rotateIfDue(long pendingBytes) {
+        if (channel == null) {
+            return;
+        }
+        try {
+            boolean tooLarge = maxBytes > 0 && channel.size() > 0 && channel.size() + pendingBytes > maxBytes;
+            if (tooLarge || System.currentTimeMillis() >= nextRotation) {
+                rotate();
+            }
+        } catch (IOException e) {
+            logger.warning("Failed to rotate denied log: " + e.getMessage());
+        }
+    }
+
+    private void rotate() throws IOException {
+        closeChannel();
+        if (!file.isFile() || file.length() == 0) {
+            return;
+        }
+        Path rotated = rotatedPath();
+        Files.move(file.toPath(), rotated);
+        if (!compressRotated) {
+            return;
+        }
+        Path compressed = rotated.resolveSibling(rotated.getFileName() + ".gz");
+        try (InputStream in = Files.newInputStream(rotated);
+             OutputStream out = new GZIPOutputStream(Files.newOutputStream(compressed))) {
+            in.transferTo(out);
+        }
+        Files.delete(rotated);
+    }
+
+    private Path rotatedPath() {
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+        String extension = dot > 0 ? name.substring(dot) : "";
+        String stamp = Instant.now().toString().replace(':', '-');
+        Path candidate = file.toPath().resolveSibling(base + "-" + stamp + extension);
+        int suffix = 1;
+        while (Files.exists(candidate) || Files.exists(candidate.resolveSibling(candidate.getFileName() + ".gz"))) {
+            candidate = file.toPath().resolveSibling(base + "-" + stamp + "-" + suffix++ + extension);
+        }
+        return candidate;
+    }
+
+    private void closeChannel() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.warning("Failed to close denied log: " + e.getMessage());
+        }
+        channel = null;
+    }
+}
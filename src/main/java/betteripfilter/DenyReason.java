@@ -2,7 +2,11 @@ package betteripfilter;
 
 public enum DenyReason {
     NOT_WHITELISTED,
+    BLOCKLISTED,
+    BANNED,
     RATE_LIMIT,
+    SUBNET_RATE_LIMIT,
+    PENALIZED,
     FAILSAFE,
     PROXY_NOT_TRUSTED
 }
@@ -0,0 +1,134 @@
+package betteripfilter;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters per login decision and stage, and latency histograms for the pre-login and handshake stages.
+ * Recording one decision costs two {@link LongAdder} increments and one histogram update.
+ */
+public class FilterMetrics {
+    private static final DenyReason[] REASONS = DenyReason.values();
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private final LongAdder allowed = new LongAdder();
+    private final LongAdder[] denied = new LongAdder[REASONS.length];
+    private final LongAdder[] handshakeDenied = new LongAdder[REASONS.length];
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LatencyHistogram handshakeLatency = new LatencyHistogram();
+
+    public FilterMetrics() {
+        for (int i = 0; i < denied.length; i++) {
+            denied[i] = new LongAdder();
+            handshakeDenied[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * @param reason the denial reason, or null when the login was allowed
+     */
+    public void record(DenyReason reason, long nanos) {
+        if (reason == null) {
+            allowed.increment();
+        } else {
+            denied[reason.ordinal()].increment();
+        }
+        latency.record(nanos);
+    }
+
+    /**
+     * Records one handshake-stage check. Only denials count as decisions; an attempt let through is decided
+     * again, and counted, at pre-login.
+     */
+    public void recordHandshake(DenyReason reason, long nanos) {
+        if (reason != null) {
+            handshakeDenied[reason.ordinal()].increment();
+        }
+        handshakeLatency.record(nanos);
+    }
+
+    public long getAllowed() {
+        return allowed.sum();
+    }
+
+    /**
+     * Denials for the reason at either stage.
+     */
+    public long getDenied(DenyReason reason) {
+        return denied[reason.ordinal()].sum() + handshakeDenied[reason.ordinal()].sum();
+    }
+
+    public long getDecisions() {
+        long decisions = getAllowed();
+        for (DenyReason reason : REASONS) {
+            decisions += getDenied(reason);
+        }
+        return decisions;
+    }
+
+    public long getLatencyQuantileNanos(double quantile) {
+        return latency.quantile(quantile);
+    }
+
+    public long getLatencyMaxNanos() {
+        return latency.max();
+    }
+
+    public long getHandshakeChecks() {
+        return handshakeLatency.count();
+    }
+
+    public long getHandshakeLatencyQuantileNanos(double quantile) {
+        return handshakeLatency.quantile(quantile);
+    }
+
+    public long getHandshakeLatencyMaxNanos() {
+        return handshakeLatency.max();
+    }
+
+    /**
+     * Appends the decision counters and the latency summary in the Prometheus text exposition format.
+     */
+    public void appendPrometheus(StringBuilder out) {
+        // Attempts let through at the handshake are decided again at pre-login, so that stage has no "allowed".
+        out.append("# HELP betteripfilter_decisions_total Login decisions by filter stage and outcome.\n")
+                .append("# TYPE betteripfilter_decisions_total counter\n");
+        out.append("betteripfilter_decisions_total{stage=\"prelogin\",outcome=\"allowed\"} ")
+                .append(getAllowed()).append('\n');
+        appendDenied(out, "prelogin", denied);
+        appendDenied(out, "handshake", handshakeDenied);
+        appendSummary(out, "betteripfilter_prelogin_latency_seconds", "Time spent in the pre-login filter.",
+                latency);
+        appendSummary(out, "betteripfilter_handshake_latency_seconds", "Time spent in the handshake filter.",
+                handshakeLatency);
+    }
+
+    private static void appendDenied(StringBuilder out, String stage, LongAdder[] counters) {
+        for (DenyReason reason : REASONS) {
+            out.append("betteripfilter_decisions_total{stage=\"").append(stage).append("\",outcome=\"")
+                    .append(reason.name().toLowerCase(Locale.ROOT)).append("\"} ")
+                    .append(counters[reason.ordinal()].sum()).append('\n');
+        }
+    }
+
+    private static void appendSummary(StringBuilder out, String name, String help, LatencyHistogram histogram) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n')
+                .append("# TYPE ").append(name).append(" summary\n");
+        for (double quantile : QUANTILES) {
+            out.append(name).append("{quantile=\"").append(quantile).append("\"} ")
+                    .append(seconds(histogram.quantile(quantile))).append('\n');
+        }
+        out.append(name).append("_sum ").append(seconds(histogram.sum())).append('\n');
+        out.append(name).append("_count ").append(histogram.count()).append('\n');
+    }
+
+    static void appendMetric(StringBuilder out, String name, String help, String type, long value) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n')
+                .append("# TYPE ").append(name).append(' ').append(type).append('\n')
+                .append(name).append(' ').append(value).append('\n');
+    }
+
+    private static String seconds(long nanos) {
+        return Double.toString(nanos / 1_000_000_000.0);
+    }
+}
@@ -0,0 +1,56 @@
+package betteripfilter;
+
+/**
+ * The settings snapshot together with the components it configures, published through a single volatile
+ * reference on reload. A login reads it once, so it never mixes limiters, logs or notifiers of two reloads.
+ * Optional components are null while their feature is off.
+ */
+public final class FilterRuntime {
+    private final FilterSettings settings;
+    private final RateLimiter rateLimiter;
+    private final SubnetRateLimiter subnetRateLimiter;
+    private final PenaltyBox penaltyBox;
+    private final DenialSuppressor denialSuppressor;
+    private final DeniedLogWriter deniedLogWriter;
+    private final WebhookNotifier webhookNotifier;
+
+    public FilterRuntime(FilterSettings settings, RateLimiter rateLimiter, SubnetRateLimiter subnetRateLimiter,
+                         PenaltyBox penaltyBox, DenialSuppressor denialSuppressor, DeniedLogWriter deniedLogWriter,
+                         WebhookNotifier webhookNotifier) {
+        this.settings = settings;
+        this.rateLimiter = rateLimiter;
+        this.subnetRateLimiter = subnetRateLimiter;
+        this.penaltyBox = penaltyBox;
+        this.denialSuppressor = denialSuppressor;
+        this.deniedLogWriter = deniedLogWriter;
+        this.webhookNotifier = webhookNotifier;
+    }
+
+    public FilterSettings getSettings() {
+        return settings;
+    }
+
+    public RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    public SubnetRateLimiter getSubnetRateLimiter() {
+        return subnetRateLimiter;
+    }
+
+    public PenaltyBox getPenaltyBox() {
+        return penaltyBox;
+    }
+
+    public DenialSuppressor getDenialSuppressor() {
+        return denialSuppressor;
+    }
+
+    public DeniedLogWriter getDeniedLogWriter() {
+        return deniedLogWriter;
+    }
+
+    public WebhookNotifier getWebhookNotifier() {
+        return webhookNotifier;
+    }
+}
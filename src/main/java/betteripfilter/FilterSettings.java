@@ -0,0 +1,456 @@
+package betteripfilter;
+
+import org.bukkit.ChatColor;
+import org.bukkit.configuration.file.FileConfiguration;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.logging.Logger;
+
+/**
+ * Immutable view of the runtime configuration, built once per reload and published inside a
+ * {@link FilterRuntime}, so a login sees one consistent set of values. Kick messages are stored already
+ * prefixed and colored.
+ */
+public final class FilterSettings {
+    private final String proxyMode;
+    private final AddressSet trustedProxies;
+    private final boolean earlyFilterEnabled;
+
+    private final boolean rateLimitEnabled;
+    private final long rateLimitWindowMillis;
+    private final int rateLimitMaxAttempts;
+    private final RateLimitMode rateLimitMode;
+    private final int rateLimitTableSlots;
+    private final List<SubnetRateLimiter.Level> subnetLevels;
+    private final int subnetTableSlots;
+    private final boolean penaltyEnabled;
+    private final int penaltyViolations;
+    private final long penaltyWindowMillis;
+    private final long penaltyBaseBanMillis;
+    private final long penaltyMaxBanMillis;
+    private final int penaltyTableSlots;
+
+    private final boolean whitelistEnabled;
+    private final boolean blocklistEnabled;
+    private final boolean blocklistFirst;
+    private final List<String> blocklistFiles;
+    private final long blocklistRefreshMillis;
+
+    private final boolean failsafeDenyAll;
+    private final int verdictCacheSize;
+
+    private final boolean logDenied;
+    private final boolean logDeniedToFile;
+    private final String deniedLogFileName;
+    private final int deniedLogQueueSize;
+    private final long deniedLogRotateBytes;
+    private final long deniedLogRotateMillis;
+    private final boolean deniedLogCompress;
+    private final long suppressRepeatsMillis;
+    private final int suppressTableSize;
+
+    private final boolean webhookEnabled;
+    private final String webhookUrl;
+    private final boolean webhookOnDenied;
+    private final boolean webhookOnRateLimit;
+    private final boolean webhookOnFailsafe;
+    private final int webhookTimeoutMs;
+    private final int webhookQueueSize;
+    private final long webhookFlushIntervalMillis;
+    private final int webhookMaxBatch;
+    private final int webhookMaxInFlight;
+    private final int webhookMaxRetries;
+
+    private final boolean metricsHttpEnabled;
+    private final String metricsHttpBind;
+    private final int metricsHttpPort;
+
+    private final String proxyNotTrustedKick;
+    private final String rateLimitKick;
+    private final String subnetRateLimitKick;
+    private final String failsafeKick;
+    private final String notWhitelistedKick;
+    private final String blocklistedKick;
+    private final String bannedKick;
+
+    private FilterSettings(FileConfiguration config, Logger logger) {
+        proxyMode = config.getString("proxy.mode", "DIRECT").toUpperCase(Locale.ROOT);
+        AddressSet.Builder trusted = AddressSet.builder();
+        for (String entry : config.getStringList("proxy.trusted-forwarded-ips")) {
+            if (entry == null || entry.isBlank()) {
+                continue;
+            }
+            if (!trusted.add(entry)) {
+                logger.warning("Ignoring invalid proxy.trusted-forwarded-ips entry: " + entry);
+            }
+        }
+        trustedProxies = trusted.build();
+        if (!"DIRECT".equals(proxyMode) && trustedProxies.isEmpty()) {
+            logger.warning("Proxy mode is enabled but proxy.trusted-forwarded-ips is empty. " +
+                    "Falling back to DIRECT behavior until trusted proxies are configured.");
+        }
+        // Behind a proxy the handshake comes from the proxy itself, so only the pre-login check can see the player.
+        boolean earlyFilter = config.getBoolean("early-filter.enabled", false);
+        if (earlyFilter && !"DIRECT".equals(proxyMode)) {
+            logger.warning("early-filter.enabled is ignored while proxy.mode is " + proxyMode + ".");
+            earlyFilter = false;
+        }
+        earlyFilterEnabled = earlyFilter;
+
+        rateLimitEnabled = config.getBoolean("ratelimit.enabled", true);
+        rateLimitWindowMillis = Math.max(1, config.getInt("ratelimit.window-seconds", 10)) * 1000L;
+        rateLimitMaxAttempts = Math.max(1, Math.min(RateLimitMode.MAX_ATTEMPTS_LIMIT,
+                config.getInt("ratelimit.max-attempts", 5)));
+        String mode = config.getString("ratelimit.mode", "FIXED_WINDOW").toUpperCase(Locale.ROOT);
+        RateLimitMode parsedMode;
+        try {
+            parsedMode = RateLimitMode.valueOf(mode);
+        } catch (IllegalArgumentException e) {
+            logger.warning("Unknown ratelimit.mode '" + mode + "', using FIXED_WINDOW.");
+            parsedMode = RateLimitMode.FIXED_WINDOW;
+        }
+        rateLimitMode = parsedMode;
+        String engine = config.getString("ratelimit.engine", "MAP").toUpperCase(Locale.ROOT);
+        if (!"MAP".equals(engine) && !"TABLE".equals(engine)) {
+            logger.warning("Unknown ratelimit.engine '" + engine + "', using MAP.");
+            engine = "MAP";
+        }
+        rateLimitTableSlots = "TABLE".equals(engine)
+                ? Math.max(RateLimitTable.WAYS, config.getInt("ratelimit.table-size", 65536))
+                : 0;
+        List<SubnetRateLimiter.Level> levels = new ArrayList<>();
+        if (config.getBoolean("ratelimit.subnet.enabled", false)) {
+            readSubnetLevels(config, logger, "ratelimit.subnet.ipv4", false, levels);
+            readSubnetLevels(config, logger, "ratelimit.subnet.ipv6", true, levels);
+        }
+        subnetLevels = Collections.unmodifiableList(levels);
+        subnetTableSlots = Math.max(RateLimitTable.WAYS, config.getInt("ratelimit.subnet.table-size", 16384));
+        penaltyEnabled = config.getBoolean("ratelimit.penalty.enabled", false);
+        penaltyViolations = Math.max(1, config.getInt("ratelimit.penalty.violations", 5));
+        penaltyWindowMillis = Math.max(1L, config.getLong("ratelimit.penalty.within-minutes", 10L)) * 60_000L;
+        penaltyBaseBanMillis = Math.max(1L, config.getLong("ratelimit.penalty.ban-seconds", 60L)) * 1000L;
+        penaltyMaxBanMillis = Math.max(penaltyBaseBanMillis,
+                config.getLong("ratelimit.penalty.max-ban-minutes", 60L) * 60_000L);
+        penaltyTableSlots = Math.max(RateLimitTable.WAYS, config.getInt("ratelimit.penalty.table-size", 8192));
+
+        whitelistEnabled = config.getBoolean("whitelist.enabled", true);
+        blocklistEnabled = config.getBoolean("blocklist.enabled", false);
+        String precedence = config.getString("blocklist.precedence", "BLOCK_FIRST").toUpperCase(Locale.ROOT);
+        if (!"BLOCK_FIRST".equals(precedence) && !"ALLOW_FIRST".equals(precedence)) {
+            logger.warning("Unknown blocklist.precedence '" + precedence + "', using BLOCK_FIRST.");
+            precedence = "BLOCK_FIRST";
+        }
+        blocklistFirst = "BLOCK_FIRST".equals(precedence);
+        blocklistFiles = Collections.unmodifiableList(new ArrayList<>(config.getStringList("blocklist.files")));
+        blocklistRefreshMillis = Math.max(1L, config.getLong("blocklist.refresh-minutes", 60L)) * 60_000L;
+
+        failsafeDenyAll = "DENY_ALL".equals(config.getString("failsafe.mode", "DENY_ALL").toUpperCase(Locale.ROOT));
+        verdictCacheSize = Math.max(0, config.getInt("cache.verdict-size", 4096));
+
+        logDenied = config.getBoolean("logging.denied", true);
+        logDeniedToFile = config.getBoolean("logging.denied-to-file", true);
+        deniedLogFileName = config.getString("logging.file-name", "denied.log");
+        deniedLogQueueSize = config.getInt("logging.queue-size", 8192);
+        deniedLogRotateBytes = Math.max(0L, config.getLong("logging.rotate-size-mb", 16L)) * 1024L * 1024L;
+        deniedLogRotateMillis = Math.max(0L, config.getLong("logging.rotate-hours", 24L)) * 3_600_000L;
+        deniedLogCompress = config.getBoolean("logging.compress-rotated", true);
+        suppressRepeatsMillis = Math.max(0L, config.getLong("logging.suppress-repeats-seconds", 60L)) * 1000L;
+        suppressTableSize = config.getInt("logging.suppress-table-size", 4096);
+
+        webhookEnabled = config.getBoolean("webhook.enabled", false);
+        webhookUrl = config.getString("webhook.url", "");
+        webhookOnDenied = config.getBoolean("webhook.on-denied", true);
+        webhookOnRateLimit = config.getBoolean("webhook.on-ratelimit", true);
+        webhookOnFailsafe = config.getBoolean("webhook.on-failsafe", true);
+        webhookTimeoutMs = Math.max(500, config.getInt("webhook.timeout-ms", 3000));
+        webhookQueueSize = config.getInt("webhook.queue-size", 1000);
+        webhookFlushIntervalMillis = config.getLong("webhook.flush-interval-ms", 2000L);
+        webhookMaxBatch = config.getInt("webhook.max-batch", 100);
+        webhookMaxInFlight = config.getInt("webhook.max-in-flight", 2);
+        webhookMaxRetries = config.getInt("webhook.max-retries", 5);
+
+        metricsHttpEnabled = config.getBoolean("metrics.http.enabled", false);
+        metricsHttpBind = config.getString("metrics.http.bind", "127.0.0.1");
+        metricsHttpPort = config.getInt("metrics.http.port", 9464);
+
+        String prefix = config.getString("messages.prefix", "");
+        proxyNotTrustedKick = render(prefix + config.getString("messages.proxyNotTrusted", ""));
+        rateLimitKick = render(prefix + config.getString("ratelimit.message",
+                "&cToo many connection attempts. Try again later."));
+        subnetRateLimitKick = render(prefix + config.getString("ratelimit.subnet.message",
+                "&cToo many connection attempts from your network. Try again later."));
+        failsafeKick = render(prefix + config.getString("failsafe.message",
+                "&cWhitelist unavailable. Try again later."));
+        notWhitelistedKick = render(prefix + config.getString("messages.notAllowed", ""));
+        bannedKick = render(prefix + config.getString("messages.banned",
+                "&cYour IP address is banned from this server."));
+        blocklistedKick = render(prefix + config.getString("blocklist.message",
+                "&cYour network is blocked on this server."));
+    }
+
+    public static FilterSettings load(FileConfiguration config, Logger logger) {
+        return new FilterSettings(config, logger);
+    }
+
+    private static void readSubnetLevels(FileConfiguration config, Logger logger, String path, boolean ipv6,
+                                         List<SubnetRateLimiter.Level> levels) {
+        for (String spec : config.getStringList(path)) {
+            SubnetRateLimiter.Level level = SubnetRateLimiter.Level.parse(spec, ipv6);
+            if (level == null) {
+                logger.warning("Ignoring invalid " + path + " entry: " + spec);
+                continue;
+            }
+            levels.add(level);
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    static String render(String message) {
+        return ChatColor.translateAlternateColorCodes('&', message);
+    }
+
+    public String getProxyMode() {
+        return proxyMode;
+    }
+
+    public boolean isProxyModeEnabled() {
+        return !"DIRECT".equals(proxyMode);
+    }
+
+    public AddressSet getTrustedProxies() {
+        return trustedProxies;
+    }
+
+    /**
+     * Whether logins should also be filtered at the handshake; always false outside DIRECT proxy mode.
+     */
+    public boolean isEarlyFilterEnabled() {
+        return earlyFilterEnabled;
+    }
+
+    public boolean isRateLimitEnabled() {
+        return rateLimitEnabled;
+    }
+
+    public long getRateLimitWindowMillis() {
+        return rateLimitWindowMillis;
+    }
+
+    public int getRateLimitMaxAttempts() {
+        return rateLimitMaxAttempts;
+    }
+
+    public RateLimitMode getRateLimitMode() {
+        return rateLimitMode;
+    }
+
+    public int getRateLimitTableSlots() {
+        return rateLimitTableSlots;
+    }
+
+    public List<SubnetRateLimiter.Level> getSubnetLevels() {
+        return subnetLevels;
+    }
+
+    public boolean isSubnetRateLimitEnabled() {
+        return rateLimitEnabled && !subnetLevels.isEmpty();
+    }
+
+    public int getSubnetTableSlots() {
+        return subnetTableSlots;
+    }
+
+    public boolean isPenaltyEnabled() {
+        return rateLimitEnabled && penaltyEnabled;
+    }
+
+    public int getPenaltyViolations() {
+        return penaltyViolations;
+    }
+
+    public long getPenaltyWindowMillis() {
+        return penaltyWindowMillis;
+    }
+
+    public long getPenaltyBaseBanMillis() {
+        return penaltyBaseBanMillis;
+    }
+
+    public long getPenaltyMaxBanMillis() {
+        return penaltyMaxBanMillis;
+    }
+
+    public int getPenaltyTableSlots() {
+        return penaltyTableSlots;
+    }
+
+    public boolean isWhitelistEnabled() {
+        return whitelistEnabled;
+    }
+
+    public boolean isBlocklistEnabled() {
+        return blocklistEnabled;
+    }
+
+    /**
+     * True when a blocklisted address is denied even if whitelisted; false when the whitelist wins.
+     */
+    public boolean isBlocklistFirst() {
+        return blocklistFirst;
+    }
+
+    public List<String> getBlocklistFiles() {
+        return blocklistFiles;
+    }
+
+    public long getBlocklistRefreshMillis() {
+        return blocklistRefreshMillis;
+    }
+
+    public boolean isFailsafeDenyAll() {
+        return failsafeDenyAll;
+    }
+
+    public int getVerdictCacheSize() {
+        return verdictCacheSize;
+    }
+
+    public boolean isLogDenied() {
+        return logDenied;
+    }
+
+    public boolean isLogDeniedToFile() {
+        return logDeniedToFile;
+    }
+
+    public String getDeniedLogFileName() {
+        return deniedLogFileName;
+    }
+
+    public int getDeniedLogQueueSize() {
+        return deniedLogQueueSize;
+    }
+
+    public long getDeniedLogRotateBytes() {
+        return deniedLogRotateBytes;
+    }
+
+    public long getDeniedLogRotateMillis() {
+        return deniedLogRotateMillis;
+    }
+
+    public boolean isDeniedLogCompress() {
+        return deniedLogCompress;
+    }
+
+    public long getSuppressRepeatsMillis() {
+        return suppressRepeatsMillis;
+    }
+
+    public int getSuppressTableSize() {
+        return suppressTableSize;
+    }
+
+    public boolean isWebhookEnabled() {
+        return webhookEnabled;
+    }
+
+    public boolean isWebhookConfigured() {
+        return webhookEnabled && webhookUrl != null && !webhookUrl.isBlank();
+    }
+
+    public String getWebhookUrl() {
+        return webhookUrl;
+    }
+
+    public boolean isWebhookOnDenied() {
+        return webhookOnDenied;
+    }
+
+    public boolean isWebhookOnRateLimit() {
+        return webhookOnRateLimit;
+    }
+
+    public boolean isWebhookOnFailsafe() {
+        return webhookOnFailsafe;
+    }
+
+    public int getWebhookTimeoutMs() {
+        return webhookTimeoutMs;
+    }
+
+    public int getWebhookQueueSize() {
+        return webhookQueueSize;
+    }
+
+    public long getWebhookFlushIntervalMillis() {
+        return webhookFlushIntervalMillis;
+    }
+
+    public int getWebhookMaxBatch() {
+        return webhookMaxBatch;
+    }
+
+    public int getWebhookMaxInFlight() {
+        return webhookMaxInFlight;
+    }
+
+    public int getWebhookMaxRetries() {
+        return webhookMaxRetries;
+    }
+
+    public boolean isMetricsHttpEnabled() {
+        return metricsHttpEnabled;
+    }
+
+    public String getMetricsHttpBind() {
+        return metricsHttpBind;
+    }
+
+    public int getMetricsHttpPort() {
+        return metricsHttpPort;
+    }
+
+    public String getProxyNotTrustedKick() {
+        return proxyNotTrustedKick;
+    }
+
+    public String getRateLimitKick() {
+        return rateLimitKick;
+    }
+
+    public String getSubnetRateLimitKick() {
+        return subnetRateLimitKick;
+    }
+
+    public String getFailsafeKick() {
+        return failsafeKick;
+    }
+
+    public String getNotWhitelistedKick() {
+        return notWhitelistedKick;
+    }
+
+    public String getBannedKick() {
+        return bannedKick;
+    }
+
+    public String getBlocklistedKick() {
+        return blocklistedKick;
+    }
+
+    public String getKickMessage(DenyReason reason) {
+        return switch (reason) {
+            case NOT_WHITELISTED -> notWhitelistedKick;
+            case BLOCKLISTED -> blocklistedKick;
+            case BANNED -> bannedKick;
+            case RATE_LIMIT, PENALIZED -> rateLimitKick;
+            case SUBNET_RATE_LIMIT -> subnetRateLimitKick;
+            case FAILSAFE -> failsafeKick;
+            case PROXY_NOT_TRUSTED -> proxyNotTrustedKick;
+        };
+    }
+}
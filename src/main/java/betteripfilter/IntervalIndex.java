@@ -0,0 +1,135 @@
+package betteripfilter;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * Immutable set of IPv4 addresses stored as merged, sorted, disjoint intervals.
+ * Bounds are kept with the sign bit flipped so unsigned order can be compared with plain int operators.
+ * An index read from {@code ips.bin} searches the mapped bounds in place.
+ */
+final class IntervalIndex {
+    private static final IntervalIndex EMPTY = new IntervalIndex(IntBuffer.allocate(0), IntBuffer.allocate(0));
+
+    private final IntBuffer starts;
+    private final IntBuffer ends;
+
+    private IntervalIndex(IntBuffer starts, IntBuffer ends) {
+        this.starts = starts;
+        this.ends = ends;
+    }
+
+    static IntervalIndex empty() {
+        return EMPTY;
+    }
+
+    static Builder builder() {
+        return new Builder();
+    }
+
+    boolean contains(int ip) {
+        int key = ip ^ Integer.MIN_VALUE;
+        int low = 0;
+        int high = starts.capacity() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (starts.get(mid) <= key) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return high >= 0 && key <= ends.get(high);
+    }
+
+    int size() {
+        return starts.capacity();
+    }
+
+    boolean isEmpty() {
+        return starts.capacity() == 0;
+    }
+
+    int serializedSize() {
+        return Integer.BYTES + starts.capacity() * Integer.BYTES * 2;
+    }
+
+    void writeTo(ByteBuffer buffer) {
+        buffer.putInt(starts.capacity());
+        CompiledWhitelistCache.putInts(buffer, starts);
+        CompiledWhitelistCache.putInts(buffer, ends);
+    }
+
+    static IntervalIndex readFrom(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            throw new IllegalStateException("Corrupt interval index");
+        }
+        if (length == 0) {
+            return EMPTY;
+        }
+        IntBuffer starts = CompiledWhitelistCache.intView(buffer, length);
+        IntBuffer ends = CompiledWhitelistCache.intView(buffer, length);
+        return new IntervalIndex(starts, ends);
+    }
+
+    static final class Builder {
+        private long[] keys = new long[16];
+        private int count;
+
+        private Builder() {
+        }
+
+        Builder add(int start, int end) {
+            if (count == keys.length) {
+                keys = Arrays.copyOf(keys, count << 1);
+            }
+            // Unsigned start in the high half, unsigned end in the low half; the sign flip makes signed sort unsigned.
+            keys[count++] = ((Integer.toUnsignedLong(start) << 32) | Integer.toUnsignedLong(end)) ^ Long.MIN_VALUE;
+            return this;
+        }
+
+        Builder addAll(IntervalIndex index) {
+            for (int i = 0; i < index.starts.capacity(); i++) {
+                add(index.starts.get(i) ^ Integer.MIN_VALUE, index.ends.get(i) ^ Integer.MIN_VALUE);
+            }
+            return this;
+        }
+
+        IntervalIndex build() {
+            if (count == 0) {
+                return EMPTY;
+            }
+            long[] sorted = Arrays.copyOf(keys, count);
+            Arrays.sort(sorted);
+
+            int[] starts = new int[count];
+            int[] ends = new int[count];
+            int size = 0;
+            long currentStart = -1;
+            long currentEnd = -1;
+            for (long raw : sorted) {
+                long key = raw ^ Long.MIN_VALUE;
+                long start = key >>> 32;
+                long end = key & 0xFFFFFFFFL;
+                if (currentStart >= 0 && start <= currentEnd + 1) {
+                    currentEnd = Math.max(currentEnd, end);
+                    continue;
+                }
+                if (currentStart >= 0) {
+                    starts[size] = (int) currentStart ^ Integer.MIN_VALUE;
+                    ends[size] = (int) currentEnd ^ Integer.MIN_VALUE;
+                    size++;
+                }
+                currentStart = start;
+                currentEnd = end;
+            }
+            starts[size] = (int) currentStart ^ Integer.MIN_VALUE;
+            ends[size] = (int) currentEnd ^ Integer.MIN_VALUE;
+            size++;
+            return new IntervalIndex(IntBuffer.wrap(Arrays.copyOf(starts, size)),
+                    IntBuffer.wrap(Arrays.copyOf(ends, size)));
+        }
+    }
+}
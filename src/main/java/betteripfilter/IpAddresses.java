@@ -0,0 +1,212 @@
+package betteripfilter;
+
+final class IpAddresses {
+    private IpAddresses() {
+    }
+
+    /**
+     * Returns the address as an unsigned value in the low 32 bits, or -1 when the value is not dotted IPv4.
+     */
+    static long parseIpv4(String value) {
+        if (value == null) {
+            return -1;
+        }
+        String trimmed = value.trim();
+        int length = trimmed.length();
+        if (length < 7 || length > 15) {
+            return -1;
+        }
+        long result = 0;
+        int part = 0;
+        int partLength = 0;
+        int parts = 0;
+        for (int i = 0; i < length; i++) {
+            char ch = trimmed.charAt(i);
+            if (ch == '.') {
+                if (partLength == 0) {
+                    return -1;
+                }
+                result = (result << 8) | part;
+                parts++;
+                part = 0;
+                partLength = 0;
+                continue;
+            }
+            if (ch < '0' || ch > '9') {
+                return -1;
+            }
+            part = part * 10 + (ch - '0');
+            partLength++;
+            if (part > 255) {
+                return -1;
+            }
+        }
+        if (partLength == 0) {
+            return -1;
+        }
+        result = (result << 8) | part;
+        parts++;
+        if (parts != 4) {
+            return -1;
+        }
+        return result;
+    }
+
+    static String intToIp(int value) {
+        return (value >>> 24 & 0xFF) + "." +
+                (value >>> 16 & 0xFF) + "." +
+                (value >>> 8 & 0xFF) + "." +
+                (value & 0xFF);
+    }
+
+    /**
+     * Parses an IPv6 literal (with optional {@code ::} compression and trailing dotted IPv4) into
+     * {@code out[0]} (high 64 bits) and {@code out[1]} (low 64 bits). Zone ids are rejected.
+     */
+    static boolean parseIpv6(String value, long[] out) {
+        if (value == null) {
+            return false;
+        }
+        String trimmed = value.trim();
+        int length = trimmed.length();
+        if (length < 2 || length > 45) {
+            return false;
+        }
+        int[] groups = new int[8];
+        int count = 0;
+        int compressAt = -1;
+        int i = 0;
+        if (trimmed.startsWith("::")) {
+            compressAt = 0;
+            i = 2;
+        } else if (trimmed.charAt(0) == ':') {
+            return false;
+        }
+        while (i < length) {
+            if (count == 8) {
+                return false;
+            }
+            int start = i;
+            int group = 0;
+            while (i < length && hexDigit(trimmed.charAt(i)) >= 0) {
+                group = (group << 4) | hexDigit(trimmed.charAt(i));
+                i++;
+                if (i - start > 4) {
+                    return false;
+                }
+            }
+            if (i < length && trimmed.charAt(i) == '.') {
+                if (count > 6) {
+                    return false;
+                }
+                long ipv4 = parseIpv4(trimmed.substring(start));
+                if (ipv4 < 0) {
+                    return false;
+                }
+                groups[count++] = (int) (ipv4 >>> 16);
+                groups[count++] = (int) (ipv4 & 0xFFFF);
+                i = length;
+                break;
+            }
+            if (i == start) {
+                return false;
+            }
+            groups[count++] = group;
+            if (i == length) {
+                break;
+            }
+            if (trimmed.charAt(i) != ':') {
+                return false;
+            }
+            i++;
+            if (i < length && trimmed.charAt(i) == ':') {
+                if (compressAt >= 0) {
+                    return false;
+                }
+                compressAt = count;
+                i++;
+            } else if (i == length) {
+                return false;
+            }
+        }
+        if (compressAt >= 0) {
+            if (count == 8) {
+                return false;
+            }
+            int shift = 8 - count;
+            System.arraycopy(groups, compressAt, groups, compressAt + shift, count - compressAt);
+            for (int g = compressAt; g < compressAt + shift; g++) {
+                groups[g] = 0;
+            }
+        } else if (count != 8) {
+            return false;
+        }
+        long high = 0;
+        long low = 0;
+        for (int g = 0; g < 4; g++) {
+            high = (high << 16) | groups[g];
+            low = (low << 16) | groups[g + 4];
+        }
+        out[0] = high;
+        out[1] = low;
+        return true;
+    }
+
+    // Character.digit would also accept non-ASCII digits such as full-width ones.
+    private static int hexDigit(char ch) {
+        if (ch >= '0' && ch <= '9') {
+            return ch - '0';
+        }
+        if (ch >= 'a' && ch <= 'f') {
+            return ch - 'a' + 10;
+        }
+        if (ch >= 'A' && ch <= 'F') {
+            return ch - 'A' + 10;
+        }
+        return -1;
+    }
+
+    /**
+     * Formats an IPv6 address in RFC 5952 canonical form.
+     */
+    static String formatIpv6(long high, long low) {
+        int[] groups = new int[8];
+        for (int g = 0; g < 4; g++) {
+            groups[g] = (int) (high >>> (48 - g * 16)) & 0xFFFF;
+            groups[g + 4] = (int) (low >>> (48 - g * 16)) & 0xFFFF;
+        }
+        int bestStart = -1;
+        int bestLength = 1;
+        for (int g = 0; g < 8; ) {
+            if (groups[g] != 0) {
+                g++;
+                continue;
+            }
+            int start = g;
+            while (g < 8 && groups[g] == 0) {
+                g++;
+            }
+            if (g - start > bestLength) {
+                bestStart = start;
+                bestLength = g - start;
+            }
+        }
+        StringBuilder builder = new StringBuilder(39);
+        for (int g = 0; g < 8; g++) {
+            if (g == bestStart) {
+                builder.append("::");
+                g += bestLength - 1;
+                continue;
+            }
+            if (builder.length() > 0 && builder.charAt(builder.length() - 1) != ':') {
+                builder.append(':');
+            }
+            builder.append(Integer.toHexString(groups[g]));
+        }
+        return builder.toString();
+    }
+
+    static long ipv6PrefixMask(int prefix) {
+        return prefix <= 0 ? 0L : prefix >= 64 ? -1L : -1L << (64 - prefix);
+    }
+}
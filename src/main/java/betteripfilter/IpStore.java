@@ -2,64 +2,193 @@ package betteripfilter;
 
 import org.bukkit.configuration.file.YamlConfiguration;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.HashSet;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongConsumer;
+import java.util.logging.Logger;
 
 public class IpStore {
-    private final BetterIpFilterPlugin plugin;
+    private static final long SAVE_DELAY_MILLIS = 250L;
+    private static final long SAVE_RETRY_MILLIS = 10_000L;
+    private static final long JOURNAL_COMPACT_BYTES = 4L * 1024 * 1024;
+    private static final int IMPORT_CHUNK_LINES = 16_384;
+    private static final int IMPORT_INVALID_SAMPLES = 10;
+    private static final long EXPIRY_TICK_MILLIS = 1000L;
+    private static final String UNTIL = " until ";
+
+    private final File dataFolder;
+    private final Logger logger;
+    private final String name;
     private final File file;
+    private final CompiledWhitelistCache cache;
+    private final WhitelistJournal journal;
     private final Object writeLock = new Object();
-    private final Set<String> entries = new HashSet<>();
+    private final Object saveLock = new Object();
+    private final ScheduledThreadPoolExecutor saveExecutor;
+    private final Map<String, AddressEntry> entries = new HashMap<>();
+    // Expiry time (epoch millis) of the entries that have one; the wheel only holds hints into this map.
+    private final Map<String, Long> expiries = new HashMap<>();
+    private TimingWheel expiryWheel;
+    private volatile int timedCount;
+    private boolean entriesLoaded = true;
+    private volatile int entryCount;
     private volatile Snapshot snapshot = Snapshot.empty();
+    private volatile VerdictCache verdictCache;
     private volatile boolean available = true;
     private volatile String lastError;
+    private volatile String lastSaveError;
+    private List<String> pendingJournal = new ArrayList<>();
+    private boolean saveScheduled;
+    private long changeVersion;
+    private long savedVersion;
 
     public IpStore(BetterIpFilterPlugin plugin) {
-        this.plugin = plugin;
-        this.file = new File(plugin.getDataFolder(), "ips.yml");
+        this(plugin.getDataFolder(), plugin.getLogger());
+    }
+
+    public IpStore(File dataFolder, Logger logger) {
+        this(dataFolder, logger, "ips");
+    }
+
+    /**
+     * @param name base name of the {@code .yml}, {@code .journal} and {@code .bin} files in the data folder
+     */
+    public IpStore(File dataFolder, Logger logger, String name) {
+        this.dataFolder = dataFolder;
+        this.logger = logger;
+        this.name = name;
+        this.file = new File(dataFolder, name + ".yml");
+        this.cache = new CompiledWhitelistCache(new File(dataFolder, name + ".bin"));
+        this.journal = new WhitelistJournal(new File(dataFolder, name + ".journal"));
+        this.saveExecutor = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "Better-IP-Filter-Writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // close() writes synchronously, so debounced writes still waiting at shutdown are dropped.
+        this.saveExecutor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
     }
 
     public void load() {
+        // Pending changes are written first so a reload never reads an older YAML file than memory holds.
+        flush();
         synchronized (writeLock) {
-            if (!plugin.getDataFolder().exists() && !plugin.getDataFolder().mkdirs()) {
+            if (!dataFolder.exists() && !dataFolder.mkdirs()) {
                 available = false;
                 lastError = "Failed to create plugin data folder.";
-                plugin.getLogger().severe(lastError);
+                logger.severe(lastError);
                 return;
             }
 
-            if (!file.exists()) {
+            if (!file.exists() && journal.size() == 0) {
                 entries.clear();
+                entriesLoaded = true;
+                entryCount = 0;
+                clearExpiries();
                 snapshot = Snapshot.empty();
+                cache.delete();
                 available = true;
                 lastError = null;
                 return;
             }
 
-            YamlConfiguration config = YamlConfiguration.loadConfiguration(file);
-            List<String> loaded = config.getStringList("ips");
-
-            ParseResult result = parseEntries(loaded);
-            if (!result.success) {
-                available = false;
-                lastError = result.errorMessage;
-                plugin.getLogger().warning("Failed to load ips.yml: " + result.errorMessage);
+            // The compiled image is enough to answer lookups; the string entries are only parsed
+            // once something actually needs them (list, contains, add, remove, or a timed entry running
+            // out). An image holding entries that expired while the server was down is not used, since
+            // parsing drops them.
+            CompiledWhitelistCache.Image image = cache.read(file, journal.size());
+            if (image != null && !anyExpired(image.expiries)) {
+                entries.clear();
+                entriesLoaded = false;
+                entryCount = image.entryCount;
+                clearExpiries();
+                for (Map.Entry<String, Long> timed : image.expiries.entrySet()) {
+                    scheduleExpiry(timed.getKey(), timed.getValue());
+                }
+                snapshot = new Snapshot(image.exactIps, image.intervals, image.ipv6Prefixes);
+                available = true;
+                lastError = null;
                 return;
             }
 
-            entries.clear();
-            entries.addAll(result.entries);
-            snapshot = result.snapshot;
-            available = true;
-            lastError = null;
+            if (loadEntries()) {
+                writeCache(snapshot, entryCount, expiries);
+            }
         }
     }
 
+    private static boolean anyExpired(Map<String, Long> timed) {
+        long now = System.currentTimeMillis();
+        for (long expiresAt : timed.values()) {
+            if (expiresAt <= now) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean loadEntries() {
+        List<String> loaded = file.exists()
+                ? YamlConfiguration.loadConfiguration(file).getStringList("ips")
+                : Collections.emptyList();
+        List<String> journalLines;
+        try {
+            journalLines = journal.read();
+        } catch (IOException e) {
+            available = false;
+            lastError = "Failed to read " + name + ".journal: " + e.getMessage();
+            logger.warning(lastError);
+            return false;
+        }
+
+        ParseResult result = parseEntries(loaded, journalLines);
+        if (!result.success) {
+            available = false;
+            lastError = result.errorMessage;
+            logger.warning("Failed to load " + file.getName() + ": " + result.errorMessage);
+            return false;
+        }
+
+        entries.clear();
+        entries.putAll(result.entries);
+        entriesLoaded = true;
+        entryCount = entries.size();
+        clearExpiries();
+        for (Map.Entry<String, Long> timed : result.expiries.entrySet()) {
+            scheduleExpiry(timed.getKey(), timed.getValue());
+        }
+        snapshot = result.snapshot;
+        available = true;
+        lastError = null;
+        return true;
+    }
+
+    private boolean ensureEntriesLoaded() {
+        return entriesLoaded || loadEntries();
+    }
+
     public boolean isAvailable() {
         return available;
     }
@@ -69,348 +198,786 @@ public class IpStore {
     }
 
     public boolean isAllowed(String ip) {
-        int ipInt = parseIpv4ToInt(ip);
-        if (ipInt < 0) {
+        if (ip != null && ip.indexOf(':') >= 0) {
+            ClientAddress address = ClientAddress.parse(ip);
+            return address != null && isAllowed(address);
+        }
+        long parsed = IpAddresses.parseIpv4(ip);
+        if (parsed < 0) {
             return false;
         }
+        return isAllowedIpv4((int) parsed);
+    }
 
+    private boolean isAllowedIpv4(int ip) {
         Snapshot current = snapshot;
-        if (current.exactIps.contains(ipInt)) {
-            return true;
+        VerdictCache cache = verdictCache;
+        if (cache == null) {
+            return current.containsIpv4(ip);
         }
-        for (IpRange range : current.ranges) {
-            if (range.contains(ipInt)) {
-                return true;
-            }
+        int cached = cache.get(ip, current.generation);
+        if (cached != VerdictCache.MISS) {
+            return cached == VerdictCache.ALLOWED;
         }
-        for (CidrBlock block : current.cidrBlocks) {
-            if (block.contains(ipInt)) {
-                return true;
-            }
+        boolean allowed = current.containsIpv4(ip);
+        cache.put(ip, current.generation, allowed);
+        return allowed;
+    }
+
+    public void configureVerdictCache(int size) {
+        verdictCache = size > 0 ? new VerdictCache(size) : null;
+    }
+
+    public int getVerdictCacheCapacity() {
+        VerdictCache cache = verdictCache;
+        return cache == null ? 0 : cache.capacity();
+    }
+
+    public long getVerdictCacheHits() {
+        VerdictCache cache = verdictCache;
+        return cache == null ? 0 : cache.hits();
+    }
+
+    public long getVerdictCacheMisses() {
+        VerdictCache cache = verdictCache;
+        return cache == null ? 0 : cache.misses();
+    }
+
+    public boolean isAllowed(ClientAddress address) {
+        if (!address.isIpv6()) {
+            return isAllowedIpv4(address.ipv4());
         }
-        return false;
+        return snapshot.containsIpv6(address.high(), address.low());
+    }
+
+    /**
+     * Same lookup as {@link #isAllowed(ClientAddress)}, named for stores whose entries deny, like the ban list.
+     */
+    public boolean matches(ClientAddress address) {
+        return isAllowed(address);
     }
 
     public boolean add(String entry) {
-        ParsedEntry parsed = parseEntry(entry);
-        if (parsed == null) {
-            return false;
+        return addAll(Collections.singletonList(entry)) > 0;
+    }
+
+    /**
+     * Adds an entry that is removed again at {@code expiresAtMillis} (epoch millis). Re-adding a timed entry
+     * replaces its expiry; a permanent entry stays permanent.
+     */
+    public boolean add(String entry, long expiresAtMillis) {
+        AddressEntry parsed = AddressEntry.parse(entry);
+        return parsed != null && addParsed(Collections.singletonList(parsed), expiresAtMillis) > 0;
+    }
+
+    public boolean remove(String entry) {
+        return removeAll(Collections.singletonList(entry)) > 0;
+    }
+
+    public int addAll(Collection<String> rawEntries) {
+        return addParsed(parseValid(rawEntries), 0L);
+    }
+
+    // An expiry of 0 adds permanent entries.
+    private int addParsed(List<AddressEntry> parsedEntries, long expiresAtMillis) {
+        if (parsedEntries.isEmpty()) {
+            return 0;
         }
         synchronized (writeLock) {
-            if (!entries.add(parsed.normalized)) {
-                return false;
+            if (!ensureEntriesLoaded()) {
+                return 0;
             }
-            ParseResult result = parseEntries(entries);
-            if (!result.success) {
-                available = false;
-                lastError = result.errorMessage;
-                plugin.getLogger().warning("Failed to update whitelist: " + result.errorMessage);
-                return false;
+            List<AddressEntry> added = new ArrayList<>();
+            int changed = 0;
+            for (AddressEntry parsed : parsedEntries) {
+                String key = parsed.normalized();
+                if (entries.putIfAbsent(key, parsed) == null) {
+                    added.add(parsed);
+                } else if (!expiries.containsKey(key)) {
+                    continue;
+                } else {
+                    expiries.remove(key);
+                    changed++;
+                }
+                if (expiresAtMillis > 0) {
+                    scheduleExpiry(key, expiresAtMillis);
+                }
+                pendingJournal.add(WhitelistJournal.line(WhitelistJournal.ADD, formatEntry(key, expiresAtMillis)));
+            }
+            if (added.isEmpty() && changed == 0) {
+                return 0;
             }
-            snapshot = result.snapshot;
+            if (!added.isEmpty()) {
+                snapshot = snapshot.withAdded(added);
+            }
+            entryCount = entries.size();
+            timedCount = expiries.size();
             available = true;
             lastError = null;
-            save();
-            return true;
+            scheduleSave();
+            return added.size() + changed;
         }
     }
 
-    public boolean remove(String entry) {
-        ParsedEntry parsed = parseEntry(entry);
-        if (parsed == null) {
-            return false;
+    public int removeAll(Collection<String> rawEntries) {
+        List<AddressEntry> parsedEntries = parseValid(rawEntries);
+        if (parsedEntries.isEmpty()) {
+            return 0;
         }
         synchronized (writeLock) {
-            if (!entries.remove(parsed.normalized)) {
-                return false;
+            if (!ensureEntriesLoaded()) {
+                return 0;
             }
-            ParseResult result = parseEntries(entries);
-            if (!result.success) {
-                available = false;
-                lastError = result.errorMessage;
-                plugin.getLogger().warning("Failed to update whitelist: " + result.errorMessage);
-                return false;
+            List<AddressEntry> removed = new ArrayList<>();
+            for (AddressEntry parsed : parsedEntries) {
+                if (entries.remove(parsed.normalized()) != null) {
+                    expiries.remove(parsed.normalized());
+                    removed.add(parsed);
+                    pendingJournal.add(WhitelistJournal.line(WhitelistJournal.REMOVE, parsed.normalized()));
+                }
+            }
+            if (removed.isEmpty()) {
+                return 0;
             }
-            snapshot = result.snapshot;
+            snapshot = snapshot.withRemoved(removed, entries.values());
+            entryCount = entries.size();
+            timedCount = expiries.size();
             available = true;
             lastError = null;
-            save();
-            return true;
+            scheduleSave();
+            return removed.size();
+        }
+    }
+
+    /**
+     * Streams a one-entry-per-line list (FireHOL {@code .netset} style, {@code #} comments allowed), parses it
+     * in parallel chunks and publishes every valid entry as a single snapshot. Blocks; call off the main thread.
+     */
+    public ImportResult importFile(Path path, LongConsumer progress) throws IOException {
+        List<CompletableFuture<ImportChunk>> pending = new ArrayList<>();
+        List<AddressEntry> parsedEntries = new ArrayList<>();
+        List<String> invalidSamples = new ArrayList<>();
+        long invalid = 0;
+        long lineNumber = 0;
+        int maxInFlight = Math.max(2, ForkJoinPool.getCommonPoolParallelism() * 2);
+
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            List<String> chunk = new ArrayList<>(IMPORT_CHUNK_LINES);
+            long chunkStart = 1;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                chunk.add(line);
+                if (chunk.size() == IMPORT_CHUNK_LINES) {
+                    List<String> lines = chunk;
+                    long firstLine = chunkStart;
+                    pending.add(CompletableFuture.supplyAsync(() -> parseChunk(lines, firstLine)));
+                    chunk = new ArrayList<>(IMPORT_CHUNK_LINES);
+                    chunkStart = lineNumber + 1;
+                    progress.accept(lineNumber);
+                }
+                if (pending.size() >= maxInFlight) {
+                    ImportChunk done = pending.remove(0).join();
+                    parsedEntries.addAll(done.entries);
+                    invalid += done.invalid;
+                    addSamples(invalidSamples, done.invalidSamples);
+                }
+            }
+            if (!chunk.isEmpty()) {
+                List<String> lines = chunk;
+                long firstLine = chunkStart;
+                pending.add(CompletableFuture.supplyAsync(() -> parseChunk(lines, firstLine)));
+            }
+        }
+        for (CompletableFuture<ImportChunk> future : pending) {
+            ImportChunk done = future.join();
+            parsedEntries.addAll(done.entries);
+            invalid += done.invalid;
+            addSamples(invalidSamples, done.invalidSamples);
+        }
+
+        int added = addParsed(parsedEntries, 0L);
+        return new ImportResult(lineNumber, parsedEntries.size(), added, invalid, invalidSamples);
+    }
+
+    private ImportChunk parseChunk(List<String> lines, long firstLine) {
+        List<AddressEntry> parsedEntries = new ArrayList<>(lines.size());
+        List<String> invalidSamples = new ArrayList<>();
+        long invalid = 0;
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i);
+            int commentIndex = line.indexOf('#');
+            String value = (commentIndex >= 0 ? line.substring(0, commentIndex) : line).trim();
+            if (value.isEmpty()) {
+                continue;
+            }
+            AddressEntry parsed = AddressEntry.parse(value);
+            if (parsed == null) {
+                invalid++;
+                if (invalidSamples.size() < IMPORT_INVALID_SAMPLES) {
+                    invalidSamples.add((firstLine + i) + ": " + value);
+                }
+            } else {
+                parsedEntries.add(parsed);
+            }
+        }
+        return new ImportChunk(parsedEntries, invalid, invalidSamples);
+    }
+
+    private static void addSamples(List<String> samples, List<String> more) {
+        for (String sample : more) {
+            if (samples.size() >= IMPORT_INVALID_SAMPLES) {
+                return;
+            }
+            samples.add(sample);
         }
     }
 
     public List<String> list() {
         synchronized (writeLock) {
-            List<String> result = new ArrayList<>(entries);
+            if (!ensureEntriesLoaded()) {
+                return new ArrayList<>();
+            }
+            List<String> result = new ArrayList<>(entries.keySet());
             Collections.sort(result);
             return result;
         }
     }
 
+    public int size() {
+        return entryCount;
+    }
+
+    /**
+     * Expiry time (epoch millis) of every entry that has one, keyed by normalized entry.
+     */
+    public Map<String, Long> listExpiries() {
+        synchronized (writeLock) {
+            return new HashMap<>(expiries);
+        }
+    }
+
+    /**
+     * Expiry time (epoch millis) of the entry, or 0 if it is permanent or not present.
+     */
+    public long getExpiry(String entry) {
+        AddressEntry parsed = AddressEntry.parse(entry);
+        if (parsed == null) {
+            return 0L;
+        }
+        synchronized (writeLock) {
+            Long expiresAt = expiries.get(parsed.normalized());
+            return expiresAt == null ? 0L : expiresAt;
+        }
+    }
+
+    public int getTimedCount() {
+        return timedCount;
+    }
+
+    /**
+     * Removes the entries whose time ran out and publishes one new snapshot if any did. Only the wheel slots
+     * that came due are visited, so the cost does not grow with the number of timed entries. Meant to run
+     * periodically off the login threads.
+     */
+    public int expire() {
+        synchronized (writeLock) {
+            if (expiryWheel == null) {
+                return 0;
+            }
+            long now = System.currentTimeMillis();
+            List<String> due = new ArrayList<>();
+            expiryWheel.advance(now, due);
+            if (due.isEmpty()) {
+                return 0;
+            }
+            // After an image load, parsing drops whatever ran out and reschedules the rest.
+            if (!ensureEntriesLoaded()) {
+                return 0;
+            }
+            List<AddressEntry> removed = new ArrayList<>();
+            for (String key : due) {
+                Long expiresAt = expiries.get(key);
+                // Removed or re-added with a later expiry since this hint was scheduled.
+                if (expiresAt == null || expiresAt > now) {
+                    continue;
+                }
+                expiries.remove(key);
+                AddressEntry parsed = entries.remove(key);
+                if (parsed != null) {
+                    removed.add(parsed);
+                    pendingJournal.add(WhitelistJournal.line(WhitelistJournal.REMOVE, key));
+                }
+            }
+            timedCount = expiries.size();
+            if (expiries.isEmpty()) {
+                expiryWheel = null;
+            }
+            if (removed.isEmpty()) {
+                return 0;
+            }
+            snapshot = snapshot.withRemoved(removed, entries.values());
+            entryCount = entries.size();
+            scheduleSave();
+            return removed.size();
+        }
+    }
+
+    // Called with writeLock held.
+    private void scheduleExpiry(String key, long expiresAtMillis) {
+        if (expiryWheel == null) {
+            expiryWheel = new TimingWheel(EXPIRY_TICK_MILLIS, System.currentTimeMillis());
+        }
+        expiries.put(key, expiresAtMillis);
+        expiryWheel.schedule(key, expiresAtMillis);
+        timedCount = expiries.size();
+    }
+
+    // Called with writeLock held.
+    private void clearExpiries() {
+        expiries.clear();
+        expiryWheel = null;
+        timedCount = 0;
+    }
+
+    private static String formatEntry(String entry, long expiresAtMillis) {
+        return expiresAtMillis > 0 ? entry + UNTIL + Instant.ofEpochMilli(expiresAtMillis) : entry;
+    }
+
+    // Returns the expiry of an "entry until <instant>" value, 0 if it has none, or -1 if the instant is invalid.
+    private static long parseExpiry(String value) {
+        int until = value.indexOf(UNTIL);
+        if (until < 0) {
+            return 0L;
+        }
+        try {
+            return Instant.parse(value.substring(until + UNTIL.length()).trim()).toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return -1L;
+        }
+    }
+
+    private static String stripExpiry(String value) {
+        int until = value.indexOf(UNTIL);
+        return until < 0 ? value : value.substring(0, until);
+    }
+
     public boolean isValidIp(String entry) {
-        return parseEntry(entry) != null;
+        return AddressEntry.parse(entry) != null;
     }
 
     public boolean contains(String entry) {
-        ParsedEntry parsed = parseEntry(entry);
+        AddressEntry parsed = AddressEntry.parse(entry);
         if (parsed == null) {
             return false;
         }
         synchronized (writeLock) {
-            return entries.contains(parsed.normalized);
+            return ensureEntriesLoaded() && entries.containsKey(parsed.normalized());
         }
     }
 
-    private void save() {
-        if (!plugin.getDataFolder().exists() && !plugin.getDataFolder().mkdirs()) {
-            plugin.getLogger().severe("Failed to create plugin data folder.");
+    // Called with writeLock held. Changes made within SAVE_DELAY_MILLIS share one journal append and fsync.
+    private void scheduleSave() {
+        changeVersion++;
+        if (saveScheduled) {
             return;
         }
-
-        YamlConfiguration config = new YamlConfiguration();
-        config.set("ips", list());
+        saveScheduled = true;
         try {
-            config.save(file);
-        } catch (IOException e) {
-            plugin.getLogger().severe("Failed to save ips.yml: " + e.getMessage());
+            saveExecutor.schedule(this::writeNow, SAVE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            saveScheduled = false;
         }
     }
 
-    private ParseResult parseEntries(Iterable<String> loaded) {
-        Set<String> normalizedEntries = new HashSet<>();
-        Set<Integer> exactIps = new HashSet<>();
-        List<CidrBlock> cidrBlocks = new ArrayList<>();
-        List<IpRange> ranges = new ArrayList<>();
+    public void flush() {
+        writeNow();
+    }
 
-        for (String entry : loaded) {
-            if (entry == null || entry.isBlank()) {
-                continue;
-            }
-            ParsedEntry parsed = parseEntry(entry);
-            if (parsed == null) {
-                return ParseResult.failure("Invalid whitelist entry: " + entry);
-            }
-            normalizedEntries.add(parsed.normalized);
-            if (parsed.type == EntryType.EXACT) {
-                exactIps.add(parsed.singleIp);
-            } else if (parsed.type == EntryType.CIDR) {
-                cidrBlocks.add(new CidrBlock(parsed.singleIp, parsed.prefix));
-            } else {
-                ranges.add(new IpRange(parsed.rangeStart, parsed.rangeEnd));
+    public void close() {
+        saveExecutor.shutdown();
+        try {
+            saveExecutor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        writeNow();
+        synchronized (writeLock) {
+            // Refresh the compiled image against the journal as it stands, so the next start skips parsing.
+            if (entriesLoaded && changeVersion == savedVersion) {
+                writeCache(snapshot, entryCount, expiries);
             }
         }
-
-        return ParseResult.success(normalizedEntries, new Snapshot(exactIps, cidrBlocks, ranges));
+        journal.close();
     }
 
-    private ParsedEntry parseEntry(String raw) {
-        if (raw == null) {
-            return null;
-        }
-        String trimmed = raw.trim();
-        if (trimmed.isEmpty()) {
-            return null;
-        }
-        int slashIndex = trimmed.indexOf('/');
-        int dashIndex = trimmed.indexOf('-');
-        if (slashIndex > -1) {
-            if (dashIndex > -1) {
-                return null;
-            }
-            String[] parts = trimmed.split("/", -1);
-            if (parts.length != 2) {
-                return null;
-            }
-            int ip = parseIpv4ToInt(parts[0]);
-            if (ip < 0) {
-                return null;
+    // Appends pending changes to the journal, or folds everything into ips.yml once the journal is large.
+    private void writeNow() {
+        synchronized (saveLock) {
+            List<String> lines;
+            List<String> data = null;
+            Snapshot current = null;
+            int count = 0;
+            Map<String, Long> timed = null;
+            long version;
+            boolean compact;
+            synchronized (writeLock) {
+                saveScheduled = false;
+                if (!entriesLoaded || changeVersion == savedVersion) {
+                    return;
+                }
+                compact = journal.size() >= JOURNAL_COMPACT_BYTES;
+                version = changeVersion;
+                lines = pendingJournal;
+                pendingJournal = new ArrayList<>();
+                if (compact) {
+                    data = new ArrayList<>(entries.size());
+                    for (String key : entries.keySet()) {
+                        Long expiresAt = expiries.get(key);
+                        data.add(formatEntry(key, expiresAt == null ? 0L : expiresAt));
+                    }
+                    current = snapshot;
+                    count = entryCount;
+                    timed = new HashMap<>(expiries);
+                }
             }
-            int prefix;
+
             try {
-                prefix = Integer.parseInt(parts[1]);
-            } catch (NumberFormatException ex) {
-                return null;
-            }
-            if (prefix < 0 || prefix > 32) {
-                return null;
-            }
-            String normalized = intToIp(ip) + "/" + prefix;
-            return ParsedEntry.cidr(normalized, ip, prefix);
-        }
-        if (dashIndex > -1) {
-            String[] parts = trimmed.split("-", -1);
-            if (parts.length != 2) {
-                return null;
+                if (compact) {
+                    Collections.sort(data);
+                    writeYaml(data);
+                    journal.reset();
+                } else {
+                    journal.append(lines);
+                }
+            } catch (IOException e) {
+                lastSaveError = e.getMessage();
+                logger.severe("Failed to save " + file.getName() + ": " + e.getMessage()
+                        + " (retrying in " + (SAVE_RETRY_MILLIS / 1000L) + "s)");
+                synchronized (writeLock) {
+                    pendingJournal.addAll(0, lines);
+                    if (!saveScheduled) {
+                        saveScheduled = true;
+                        try {
+                            saveExecutor.schedule(this::writeNow, SAVE_RETRY_MILLIS, TimeUnit.MILLISECONDS);
+                        } catch (RejectedExecutionException ignored) {
+                            saveScheduled = false;
+                        }
+                    }
+                }
+                return;
             }
-            int start = parseIpv4ToInt(parts[0]);
-            int end = parseIpv4ToInt(parts[1]);
-            if (start < 0 || end < 0) {
-                return null;
+            synchronized (writeLock) {
+                savedVersion = version;
             }
-            if (Integer.compareUnsigned(start, end) > 0) {
-                return null;
+            lastSaveError = null;
+            if (compact) {
+                writeCache(current, count, timed);
             }
-            String normalized = intToIp(start) + "-" + intToIp(end);
-            return ParsedEntry.range(normalized, start, end);
-        }
-        int ip = parseIpv4ToInt(trimmed);
-        if (ip < 0) {
-            return null;
         }
-        return ParsedEntry.exact(intToIp(ip), ip);
     }
 
-    private int parseIpv4ToInt(String value) {
-        if (value == null) {
-            return -1;
+    private void writeYaml(List<String> data) throws IOException {
+        if (!dataFolder.exists() && !dataFolder.mkdirs()) {
+            throw new IOException("Failed to create plugin data folder.");
         }
-        String trimmed = value.trim();
-        int length = trimmed.length();
-        if (length < 7 || length > 15) {
-            return -1;
+        YamlConfiguration config = new YamlConfiguration();
+        config.set("ips", data);
+        byte[] bytes = config.saveToString().getBytes(StandardCharsets.UTF_8);
+
+        Path target = file.toPath();
+        Path temp = target.resolveSibling(file.getName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
         }
-        int result = 0;
-        int part = 0;
-        int partLength = 0;
-        int parts = 0;
-        for (int i = 0; i < length; i++) {
-            char ch = trimmed.charAt(i);
-            if (ch == '.') {
-                if (partLength == 0) {
-                    return -1;
-                }
-                result = (result << 8) | part;
-                parts++;
-                part = 0;
-                partLength = 0;
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void writeCache(Snapshot current, int count, Map<String, Long> timed) {
+        try {
+            cache.write(file, journal.size(), count, current.exactIps, current.intervals, current.ipv6Prefixes,
+                    timed);
+        } catch (IOException e) {
+            logger.warning("Failed to write compiled whitelist cache: " + e.getMessage());
+            cache.delete();
+        }
+    }
+
+    public String getLastSaveError() {
+        return lastSaveError;
+    }
+
+    private ParseResult parseEntries(Iterable<String> loaded, List<String> journalLines) {
+        Map<String, AddressEntry> parsedEntries = new HashMap<>();
+        Map<String, Long> parsedExpiries = new HashMap<>();
+        for (String entry : loaded) {
+            if (entry == null || entry.isBlank()) {
                 continue;
             }
-            if (ch < '0' || ch > '9') {
-                return -1;
+            long expiresAt = parseExpiry(entry);
+            AddressEntry parsed = expiresAt < 0 ? null : AddressEntry.parse(stripExpiry(entry));
+            if (parsed == null) {
+                return ParseResult.failure("Invalid entry: " + entry);
             }
-            part = part * 10 + (ch - '0');
-            partLength++;
-            if (part > 255) {
-                return -1;
+            parsedEntries.put(parsed.normalized(), parsed);
+            if (expiresAt > 0) {
+                parsedExpiries.put(parsed.normalized(), expiresAt);
             }
         }
-        if (partLength == 0) {
-            return -1;
+
+        // A crash can leave a torn last line; anything unreadable in the journal is skipped, not fatal.
+        int skipped = 0;
+        for (String line : journalLines) {
+            if (line.isBlank()) {
+                continue;
+            }
+            String value = line.length() > 2 ? line.substring(2) : "";
+            long expiresAt = parseExpiry(value);
+            AddressEntry parsed = expiresAt < 0 ? null : AddressEntry.parse(stripExpiry(value));
+            char operation = line.charAt(0);
+            if (parsed == null || (operation != WhitelistJournal.ADD && operation != WhitelistJournal.REMOVE)) {
+                skipped++;
+            } else if (operation == WhitelistJournal.ADD) {
+                parsedEntries.put(parsed.normalized(), parsed);
+                if (expiresAt > 0) {
+                    parsedExpiries.put(parsed.normalized(), expiresAt);
+                } else {
+                    parsedExpiries.remove(parsed.normalized());
+                }
+            } else {
+                parsedEntries.remove(parsed.normalized());
+                parsedExpiries.remove(parsed.normalized());
+            }
         }
-        result = (result << 8) | part;
-        parts++;
-        if (parts != 4) {
-            return -1;
+        // Entries that ran out while the server was down are dropped here and left out of the next compaction.
+        long now = System.currentTimeMillis();
+        parsedExpiries.entrySet().removeIf(timed -> {
+            if (timed.getValue() > now) {
+                return false;
+            }
+            parsedEntries.remove(timed.getKey());
+            return true;
+        });
+        if (skipped > 0) {
+            logger.warning("Ignored " + skipped + " malformed line(s) in " + name + ".journal.");
         }
-        return result;
+        return ParseResult.success(parsedEntries, parsedExpiries, Snapshot.compile(parsedEntries.values()));
     }
 
-    private String intToIp(int value) {
-        return (value >>> 24 & 0xFF) + "." +
-                (value >>> 16 & 0xFF) + "." +
-                (value >>> 8 & 0xFF) + "." +
-                (value & 0xFF);
+    private List<AddressEntry> parseValid(Collection<String> rawEntries) {
+        List<AddressEntry> parsedEntries = new ArrayList<>(rawEntries.size());
+        for (String raw : rawEntries) {
+            AddressEntry parsed = AddressEntry.parse(raw);
+            if (parsed != null) {
+                parsedEntries.add(parsed);
+            }
+        }
+        return parsedEntries;
     }
 
-    private enum EntryType {
-        EXACT,
-        CIDR,
-        RANGE
+    private static final class ImportChunk {
+        private final List<AddressEntry> entries;
+        private final long invalid;
+        private final List<String> invalidSamples;
+
+        private ImportChunk(List<AddressEntry> entries, long invalid, List<String> invalidSamples) {
+            this.entries = entries;
+            this.invalid = invalid;
+            this.invalidSamples = invalidSamples;
+        }
     }
 
-    private static final class ParsedEntry {
-        private final String normalized;
-        private final EntryType type;
-        private final int singleIp;
-        private final int prefix;
-        private final int rangeStart;
-        private final int rangeEnd;
+    public static final class ImportResult {
+        private final long lines;
+        private final int valid;
+        private final int added;
+        private final long invalid;
+        private final List<String> invalidSamples;
+
+        private ImportResult(long lines, int valid, int added, long invalid, List<String> invalidSamples) {
+            this.lines = lines;
+            this.valid = valid;
+            this.added = added;
+            this.invalid = invalid;
+            this.invalidSamples = Collections.unmodifiableList(invalidSamples);
+        }
+
+        public long getLines() {
+            return lines;
+        }
 
-        private ParsedEntry(String normalized, EntryType type, int singleIp, int prefix, int rangeStart, int rangeEnd) {
-            this.normalized = normalized;
-            this.type = type;
-            this.singleIp = singleIp;
-            this.prefix = prefix;
-            this.rangeStart = rangeStart;
-            this.rangeEnd = rangeEnd;
+        public int getValid() {
+            return valid;
         }
 
-        private static ParsedEntry exact(String normalized, int ip) {
-            return new ParsedEntry(normalized, EntryType.EXACT, ip, 0, 0, 0);
+        public int getAdded() {
+            return added;
         }
 
-        private static ParsedEntry cidr(String normalized, int ip, int prefix) {
-            return new ParsedEntry(normalized, EntryType.CIDR, ip, prefix, 0, 0);
+        public long getInvalid() {
+            return invalid;
         }
 
-        private static ParsedEntry range(String normalized, int start, int end) {
-            return new ParsedEntry(normalized, EntryType.RANGE, 0, 0, start, end);
+        public List<String> getInvalidSamples() {
+            return invalidSamples;
         }
     }
 
     private static final class ParseResult {
         private final boolean success;
         private final String errorMessage;
-        private final Set<String> entries;
+        private final Map<String, AddressEntry> entries;
+        private final Map<String, Long> expiries;
         private final Snapshot snapshot;
 
-        private ParseResult(boolean success, String errorMessage, Set<String> entries, Snapshot snapshot) {
+        private ParseResult(boolean success, String errorMessage, Map<String, AddressEntry> entries,
+                            Map<String, Long> expiries, Snapshot snapshot) {
             this.success = success;
             this.errorMessage = errorMessage;
             this.entries = entries;
+            this.expiries = expiries;
             this.snapshot = snapshot;
         }
 
-        private static ParseResult success(Set<String> entries, Snapshot snapshot) {
-            return new ParseResult(true, null, entries, snapshot);
+        private static ParseResult success(Map<String, AddressEntry> entries, Map<String, Long> expiries,
+                                           Snapshot snapshot) {
+            return new ParseResult(true, null, entries, expiries, snapshot);
         }
 
         private static ParseResult failure(String errorMessage) {
-            return new ParseResult(false, errorMessage, null, null);
+            return new ParseResult(false, errorMessage, null, null, null);
         }
     }
 
     private static final class Snapshot {
-        private final Set<Integer> exactIps;
-        private final List<CidrBlock> cidrBlocks;
-        private final List<IpRange> ranges;
+        private static final AtomicInteger GENERATIONS = new AtomicInteger();
 
-        private Snapshot(Set<Integer> exactIps, List<CidrBlock> cidrBlocks, List<IpRange> ranges) {
-            this.exactIps = Collections.unmodifiableSet(exactIps);
-            this.cidrBlocks = Collections.unmodifiableList(cidrBlocks);
-            this.ranges = Collections.unmodifiableList(ranges);
-        }
+        // Tags verdict cache slots; 0 is never handed out so empty slots can never match.
+        private final int generation;
+        private final IntHashSet exactIps;
+        private final IntervalIndex intervals;
+        private final Ipv6Trie ipv6Prefixes;
 
-        private static Snapshot empty() {
-            return new Snapshot(Collections.emptySet(), Collections.emptyList(), Collections.emptyList());
+        private Snapshot(IntHashSet exactIps, IntervalIndex intervals, Ipv6Trie ipv6Prefixes) {
+            this.generation = nextGeneration();
+            this.exactIps = exactIps;
+            this.intervals = intervals;
+            this.ipv6Prefixes = ipv6Prefixes;
         }
-    }
-
-    private static final class CidrBlock {
-        private final int network;
-        private final int mask;
 
-        private CidrBlock(int ip, int prefix) {
-            this.mask = prefix == 0 ? 0 : -1 << (32 - prefix);
-            this.network = ip & mask;
+        private static Snapshot empty() {
+            return new Snapshot(new IntHashSet(), IntervalIndex.empty(), Ipv6Trie.empty());
         }
 
-        private boolean contains(int ip) {
-            return (ip & mask) == network;
+        private static int nextGeneration() {
+            while (true) {
+                int next = GENERATIONS.incrementAndGet() & Integer.MAX_VALUE;
+                if (next != 0) {
+                    return next;
+                }
+            }
         }
-    }
-
-    private static final class IpRange {
-        private final int start;
-        private final int end;
 
-        private IpRange(int start, int end) {
-            this.start = start;
-            this.end = end;
+        private boolean containsIpv4(int ip) {
+            return exactIps.contains(ip) || intervals.contains(ip);
         }
 
-        private boolean contains(int ip) {
-            return Integer.compareUnsigned(ip, start) >= 0 && Integer.compareUnsigned(ip, end) <= 0;
+        private boolean containsIpv6(long high, long low) {
+            if (ipv6Prefixes.contains(high, low)) {
+                return true;
+            }
+            // IPv4-mapped addresses (::ffff:a.b.c.d) are also matched against the IPv4 entries.
+            return high == 0 && (low >>> 32) == 0xFFFFL && containsIpv4((int) low);
+        }
+
+        private static Snapshot compile(Collection<AddressEntry> entries) {
+            IntHashSet exactIps = new IntHashSet(entries.size());
+            IntervalIndex.Builder intervals = IntervalIndex.builder();
+            Ipv6Trie.Builder ipv6Prefixes = Ipv6Trie.builder();
+            for (AddressEntry parsed : entries) {
+                if (parsed.isIpv6()) {
+                    parsed.addPrefixes(ipv6Prefixes);
+                } else if (parsed.isExact()) {
+                    exactIps.add(parsed.singleIp());
+                } else {
+                    parsed.addInterval(intervals);
+                }
+            }
+            return new Snapshot(exactIps, intervals.build(), ipv6Prefixes.build());
+        }
+
+        // Adds only ever grow the set, so the existing compiled structures can be reused as-is.
+        private Snapshot withAdded(List<AddressEntry> added) {
+            IntHashSet nextExact = exactIps;
+            IntervalIndex.Builder nextIntervals = null;
+            Ipv6Trie.Builder nextIpv6 = null;
+            for (AddressEntry parsed : added) {
+                if (parsed.isIpv6()) {
+                    if (nextIpv6 == null) {
+                        nextIpv6 = Ipv6Trie.builder().addAll(ipv6Prefixes);
+                    }
+                    parsed.addPrefixes(nextIpv6);
+                } else if (parsed.isExact()) {
+                    if (nextExact == exactIps) {
+                        nextExact = exactIps.copy();
+                    }
+                    nextExact.add(parsed.singleIp());
+                } else {
+                    if (nextIntervals == null) {
+                        nextIntervals = IntervalIndex.builder().addAll(intervals);
+                    }
+                    parsed.addInterval(nextIntervals);
+                }
+            }
+            return new Snapshot(nextExact,
+                    nextIntervals == null ? intervals : nextIntervals.build(),
+                    nextIpv6 == null ? ipv6Prefixes : nextIpv6.build());
+        }
+
+        // Merged intervals and pruned prefixes cannot be split back into their sources, so removals rebuild
+        // them from the already-parsed remaining entries; no strings are re-parsed.
+        private Snapshot withRemoved(List<AddressEntry> removed, Collection<AddressEntry> remaining) {
+            IntHashSet nextExact = exactIps;
+            boolean rebuildIntervals = false;
+            boolean rebuildIpv6 = false;
+            for (AddressEntry parsed : removed) {
+                if (parsed.isIpv6()) {
+                    rebuildIpv6 = true;
+                } else if (parsed.isExact()) {
+                    if (nextExact == exactIps) {
+                        nextExact = exactIps.copy();
+                    }
+                    nextExact.remove(parsed.singleIp());
+                } else {
+                    rebuildIntervals = true;
+                }
+            }
+            IntervalIndex nextIntervals = intervals;
+            if (rebuildIntervals) {
+                IntervalIndex.Builder builder = IntervalIndex.builder();
+                for (AddressEntry parsed : remaining) {
+                    if (!parsed.isIpv6() && !parsed.isExact()) {
+                        parsed.addInterval(builder);
+                    }
+                }
+                nextIntervals = builder.build();
+            }
+            Ipv6Trie nextIpv6 = ipv6Prefixes;
+            if (rebuildIpv6) {
+                Ipv6Trie.Builder builder = Ipv6Trie.builder();
+                for (AddressEntry parsed : remaining) {
+                    if (parsed.isIpv6()) {
+                        parsed.addPrefixes(builder);
+                    }
+                }
+                nextIpv6 = builder.build();
+            }
+            return new Snapshot(nextExact, nextIntervals, nextIpv6);
         }
     }
 }
@@ -0,0 +1,285 @@
+package betteripfilter;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+
+/**
+ * Immutable path-compressed binary trie of IPv6 prefixes, stored in parallel primitive buffers that a trie
+ * read from {@code ips.bin} walks in place. Prefixes covered by a shorter prefix are dropped at build time, so
+ * every leaf is a whitelisted prefix and a lookup only has to find one prefix on its path.
+ */
+final class Ipv6Trie {
+    private static final Ipv6Trie EMPTY = new Ipv6Trie(LongBuffer.allocate(0), LongBuffer.allocate(0),
+            IntBuffer.allocate(0), IntBuffer.allocate(0), IntBuffer.allocate(0), 0);
+    private static final int NONE = -1;
+
+    private final LongBuffer highs;
+    private final LongBuffer lows;
+    private final IntBuffer lengths;
+    private final IntBuffer zeroChildren;
+    private final IntBuffer oneChildren;
+    private final int prefixCount;
+
+    private Ipv6Trie(LongBuffer highs, LongBuffer lows, IntBuffer lengths, IntBuffer zeroChildren,
+                     IntBuffer oneChildren, int prefixCount) {
+        this.highs = highs;
+        this.lows = lows;
+        this.lengths = lengths;
+        this.zeroChildren = zeroChildren;
+        this.oneChildren = oneChildren;
+        this.prefixCount = prefixCount;
+    }
+
+    static Ipv6Trie empty() {
+        return EMPTY;
+    }
+
+    static Builder builder() {
+        return new Builder();
+    }
+
+    boolean contains(long high, long low) {
+        if (highs.capacity() == 0) {
+            return false;
+        }
+        int node = 0;
+        while (node != NONE) {
+            int length = lengths.get(node);
+            if (!matches(high, low, highs.get(node), lows.get(node), length)) {
+                return false;
+            }
+            if (zeroChildren.get(node) == NONE) {
+                return true;
+            }
+            boolean bit = length < 64 ? (high << length) < 0 : (low << (length - 64)) < 0;
+            node = bit ? oneChildren.get(node) : zeroChildren.get(node);
+        }
+        return false;
+    }
+
+    int prefixCount() {
+        return prefixCount;
+    }
+
+    int nodeCount() {
+        return highs.capacity();
+    }
+
+    int serializedSize() {
+        return Integer.BYTES * 2 + highs.capacity() * (Long.BYTES * 2 + Integer.BYTES * 3);
+    }
+
+    void writeTo(ByteBuffer buffer) {
+        buffer.putInt(highs.capacity());
+        buffer.putInt(prefixCount);
+        CompiledWhitelistCache.putLongs(buffer, highs);
+        CompiledWhitelistCache.putLongs(buffer, lows);
+        CompiledWhitelistCache.putInts(buffer, lengths);
+        CompiledWhitelistCache.putInts(buffer, zeroChildren);
+        CompiledWhitelistCache.putInts(buffer, oneChildren);
+    }
+
+    static Ipv6Trie readFrom(ByteBuffer buffer) {
+        int nodes = buffer.getInt();
+        int prefixCount = buffer.getInt();
+        if (nodes < 0 || prefixCount < 0 || (nodes > 0 && nodes != prefixCount * 2 - 1)) {
+            throw new IllegalStateException("Corrupt IPv6 trie");
+        }
+        if (nodes == 0) {
+            return EMPTY;
+        }
+        LongBuffer highs = CompiledWhitelistCache.longView(buffer, nodes);
+        LongBuffer lows = CompiledWhitelistCache.longView(buffer, nodes);
+        IntBuffer lengths = CompiledWhitelistCache.intView(buffer, nodes);
+        IntBuffer zeroChildren = CompiledWhitelistCache.intView(buffer, nodes);
+        IntBuffer oneChildren = CompiledWhitelistCache.intView(buffer, nodes);
+        return new Ipv6Trie(highs, lows, lengths, zeroChildren, oneChildren, prefixCount);
+    }
+
+    private static boolean matches(long high, long low, long prefixHigh, long prefixLow, int length) {
+        if (length <= 64) {
+            long mask = IpAddresses.ipv6PrefixMask(length);
+            return ((high ^ prefixHigh) & mask) == 0;
+        }
+        return high == prefixHigh && ((low ^ prefixLow) & IpAddresses.ipv6PrefixMask(length - 64)) == 0;
+    }
+
+    static final class Builder {
+        private long[] prefixHighs = new long[16];
+        private long[] prefixLows = new long[16];
+        private int[] prefixLengths = new int[16];
+        private int count;
+
+        private Builder() {
+        }
+
+        Builder add(long high, long low, int length) {
+            if (count == prefixHighs.length) {
+                prefixHighs = Arrays.copyOf(prefixHighs, count << 1);
+                prefixLows = Arrays.copyOf(prefixLows, count << 1);
+                prefixLengths = Arrays.copyOf(prefixLengths, count << 1);
+            }
+            long highMask = IpAddresses.ipv6PrefixMask(length);
+            long lowMask = IpAddresses.ipv6PrefixMask(length - 64);
+            prefixHighs[count] = high & highMask;
+            prefixLows[count] = low & lowMask;
+            prefixLengths[count] = length;
+            count++;
+            return this;
+        }
+
+        /**
+         * Adds the inclusive range as the minimal set of aligned prefixes (at most 254).
+         */
+        Builder addRange(long startHigh, long startLow, long endHigh, long endLow) {
+            long high = startHigh;
+            long low = startLow;
+            while (compareUnsigned(high, low, endHigh, endLow) <= 0) {
+                int alignment = high == 0 && low == 0 ? 128
+                        : low != 0 ? Long.numberOfTrailingZeros(low) : 64 + Long.numberOfTrailingZeros(high);
+                // Size of the remaining span (end - start + 1) as a bit count, capped by the alignment.
+                long spanLow = endLow - low;
+                long spanHigh = endHigh - high - (Long.compareUnsigned(endLow, low) < 0 ? 1 : 0);
+                int spanBits;
+                if (spanHigh == -1L && spanLow == -1L) {
+                    spanBits = 128;
+                } else {
+                    spanLow++;
+                    if (spanLow == 0) {
+                        spanHigh++;
+                    }
+                    spanBits = spanHigh != 0 ? 127 - Long.numberOfLeadingZeros(spanHigh)
+                            : 63 - Long.numberOfLeadingZeros(spanLow);
+                }
+                int blockBits = Math.min(alignment, spanBits);
+                add(high, low, 128 - blockBits);
+                if (blockBits == 128) {
+                    break;
+                }
+                long previousHigh = high;
+                if (blockBits >= 64) {
+                    high += 1L << (blockBits - 64);
+                } else {
+                    long nextLow = low + (1L << blockBits);
+                    if (Long.compareUnsigned(nextLow, low) < 0) {
+                        high++;
+                    }
+                    low = nextLow;
+                }
+                if (Long.compareUnsigned(high, previousHigh) < 0 || (high == 0 && low == 0)) {
+                    break;
+                }
+            }
+            return this;
+        }
+
+        Builder addAll(Ipv6Trie trie) {
+            for (int node = 0; node < trie.highs.capacity(); node++) {
+                if (trie.zeroChildren.get(node) == NONE) {
+                    add(trie.highs.get(node), trie.lows.get(node), trie.lengths.get(node));
+                }
+            }
+            return this;
+        }
+
+        Ipv6Trie build() {
+            if (count == 0) {
+                return EMPTY;
+            }
+            Integer[] order = new Integer[count];
+            for (int i = 0; i < count; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> {
+                int compare = compareUnsigned(prefixHighs[a], prefixLows[a], prefixHighs[b], prefixLows[b]);
+                return compare != 0 ? compare : Integer.compare(prefixLengths[a], prefixLengths[b]);
+            });
+
+            // Sorted by address then length, a covering prefix comes right before everything it covers.
+            long[] sortedHighs = new long[count];
+            long[] sortedLows = new long[count];
+            int[] sortedLengths = new int[count];
+            int kept = 0;
+            for (int i = 0; i < count; i++) {
+                int index = order[i];
+                if (kept > 0 && matches(prefixHighs[index], prefixLows[index],
+                        sortedHighs[kept - 1], sortedLows[kept - 1], sortedLengths[kept - 1])) {
+                    continue;
+                }
+                sortedHighs[kept] = prefixHighs[index];
+                sortedLows[kept] = prefixLows[index];
+                sortedLengths[kept] = prefixLengths[index];
+                kept++;
+            }
+
+            int nodes = kept * 2 - 1;
+            NodeSink sink = new NodeSink(nodes);
+            buildNode(sink, sortedHighs, sortedLows, sortedLengths, 0, kept);
+            return new Ipv6Trie(LongBuffer.wrap(sink.highs), LongBuffer.wrap(sink.lows), IntBuffer.wrap(sink.lengths),
+                    IntBuffer.wrap(sink.zeroChildren), IntBuffer.wrap(sink.oneChildren), kept);
+        }
+
+        private static int buildNode(NodeSink sink, long[] highs, long[] lows, int[] lengths, int from, int to) {
+            int node = sink.next++;
+            if (to - from == 1) {
+                sink.set(node, highs[from], lows[from], lengths[from], NONE, NONE);
+                return node;
+            }
+            int last = to - 1;
+            int common = commonPrefixLength(highs[from], lows[from], highs[last], lows[last]);
+            int split = from + 1;
+            while (split < last && !bitAt(highs[split], lows[split], common)) {
+                split++;
+            }
+            long highMask = IpAddresses.ipv6PrefixMask(common);
+            long lowMask = IpAddresses.ipv6PrefixMask(common - 64);
+            int zero = buildNode(sink, highs, lows, lengths, from, split);
+            int one = buildNode(sink, highs, lows, lengths, split, to);
+            sink.set(node, highs[from] & highMask, lows[from] & lowMask, common, zero, one);
+            return node;
+        }
+
+        private static int commonPrefixLength(long highA, long lowA, long highB, long lowB) {
+            if (highA != highB) {
+                return Long.numberOfLeadingZeros(highA ^ highB);
+            }
+            return 64 + Long.numberOfLeadingZeros(lowA ^ lowB);
+        }
+
+        private static boolean bitAt(long high, long low, int index) {
+            return index < 64 ? (high << index) < 0 : (low << (index - 64)) < 0;
+        }
+    }
+
+    private static final class NodeSink {
+        private final long[] highs;
+        private final long[] lows;
+        private final int[] lengths;
+        private final int[] zeroChildren;
+        private final int[] oneChildren;
+        private int next;
+
+        private NodeSink(int size) {
+            this.highs = new long[size];
+            this.lows = new long[size];
+            this.lengths = new int[size];
+            this.zeroChildren = new int[size];
+            this.oneChildren = new int[size];
+        }
+
+        private void set(int node, long high, long low, int length, int zero, int one) {
+            highs[node] = high;
+            lows[node] = low;
+            lengths[node] = length;
+            zeroChildren[node] = zero;
+            oneChildren[node] = one;
+        }
+    }
+
+    static int compareUnsigned(long highA, long lowA, long highB, long lowB) {
+        int compare = Long.compareUnsigned(highA, highB);
+        return compare != 0 ? compare : Long.compareUnsigned(lowA, lowB);
+    }
+}
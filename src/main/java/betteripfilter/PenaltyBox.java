@@ -0,0 +1,235 @@
+package betteripfilter;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Time-bounded ban for addresses that keep tripping the rate limiter. {@code threshold} violations within
+ * {@code windowMillis} box an address for {@code baseBanMillis}, doubled for every repeat offense up to
+ * {@code maxBanMillis}; the strike count is forgotten once an address stays out of the box for
+ * {@code maxBanMillis}. Bans lift by themselves when their time is up.
+ * <p>
+ * State lives in a preallocated set-associative table like {@link RateLimitTable}. Lookups are lock-free and
+ * skip the table entirely while no ban is running; violations are recorded under striped locks.
+ */
+public class PenaltyBox {
+    private static final int WAYS = RateLimitTable.WAYS;
+    private static final int LOCK_STRIPES = 64;
+    private static final long EMPTY = 0L;
+
+    private final int threshold;
+    private final long windowMillis;
+    private final long baseBanMillis;
+    private final long maxBanMillis;
+    private final int stripeMask;
+    private final Object[] locks = new Object[LOCK_STRIPES];
+    private final AtomicLongArray keys;
+    private final AtomicLongArray bannedUntil;
+    private final long[] windowStarts;
+    private final int[] violations;
+    private final int[] strikes;
+    private final AtomicLong latestBanEnd = new AtomicLong();
+    private final LongAdder bans = new LongAdder();
+    private final long originNanos = System.nanoTime();
+    private volatile PenaltyBox successor;
+
+    public PenaltyBox(int slots, int threshold, long windowMillis, long baseBanMillis, long maxBanMillis) {
+        int stripes = Integer.highestOneBit(Math.max(1, Math.min(slots, 1 << 22) / WAYS));
+        int capacity = stripes * WAYS;
+        this.threshold = Math.max(1, threshold);
+        this.windowMillis = Math.max(1L, windowMillis);
+        this.baseBanMillis = Math.max(1L, baseBanMillis);
+        this.maxBanMillis = Math.max(this.baseBanMillis, maxBanMillis);
+        this.stripeMask = stripes - 1;
+        this.keys = new AtomicLongArray(capacity);
+        this.bannedUntil = new AtomicLongArray(capacity);
+        this.windowStarts = new long[capacity];
+        this.violations = new int[capacity];
+        this.strikes = new int[capacity];
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    public boolean isPenalized(ClientAddress address) {
+        long now = now();
+        if (now >= latestBanEnd.get()) {
+            return false;
+        }
+        long key = RateLimitTable.key(address);
+        int base = stripe(key) * WAYS;
+        for (int i = base; i < base + WAYS; i++) {
+            if (keys.get(i) == key) {
+                return bannedUntil.get(i) > now;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Counts one rate limit violation and returns the length of the ban it started, or 0 if it did not.
+     */
+    public long recordViolation(ClientAddress address) {
+        long key = RateLimitTable.key(address);
+        int stripe = stripe(key);
+        synchronized (locks[stripe & (LOCK_STRIPES - 1)]) {
+            if (successor == null) {
+                return recordViolation(key, stripe * WAYS, now());
+            }
+        }
+        return successor.recordViolation(address);
+    }
+
+    // Called with the stripe lock held.
+    private long recordViolation(long key, int base, long now) {
+        int slot = find(base, key);
+        if (slot < 0) {
+            slot = victim(base, now);
+            // Cleared before the key changes hands, so a lookup never sees the old ban under the new key.
+            bannedUntil.set(slot, 0L);
+            keys.set(slot, key);
+            windowStarts[slot] = now;
+            violations[slot] = 0;
+            strikes[slot] = 0;
+        }
+        long lastBanEnd = bannedUntil.get(slot);
+        if (lastBanEnd > now) {
+            return 0L;
+        }
+        if (now - windowStarts[slot] >= windowMillis) {
+            windowStarts[slot] = now;
+            violations[slot] = 0;
+        }
+        if (++violations[slot] < threshold) {
+            return 0L;
+        }
+        int strike = lastBanEnd != 0 && now - lastBanEnd < maxBanMillis ? strikes[slot] + 1 : 1;
+        long duration = Math.min(maxBanMillis, baseBanMillis << Math.min(strike - 1, 30));
+        strikes[slot] = strike;
+        violations[slot] = 0;
+        windowStarts[slot] = now;
+        bannedUntil.set(slot, now + duration);
+        latestBanEnd.accumulateAndGet(now + duration, Math::max);
+        bans.increment();
+        return duration;
+    }
+
+    /**
+     * Addresses boxed right now. Scans the whole table; meant for status output, not the login path.
+     */
+    public int activeCount() {
+        long now = now();
+        int active = 0;
+        for (int i = 0; i < bannedUntil.length(); i++) {
+            if (bannedUntil.get(i) > now) {
+                active++;
+            }
+        }
+        return active;
+    }
+
+    public long getBanCount() {
+        return bans.sum();
+    }
+
+    /**
+     * Carries the running bans and strike counts of the box this one replaces over, so a reload does not set
+     * boxed offenders free. Call it once this box is published: from then on violations that still reach
+     * {@code previous} are forwarded here, and anything recorded there before is merged in. If this table is
+     * smaller, the bans ending last are kept.
+     */
+    public void takeOver(PenaltyBox previous) {
+        previous.successor = this;
+        bans.add(previous.getBanCount());
+        // Both boxes count from their own clock origin.
+        long shift = (previous.originNanos - originNanos) / 1_000_000L;
+        long now = now();
+        int previousStripes = previous.stripeMask + 1;
+        for (int stripe = 0; stripe < previousStripes; stripe++) {
+            synchronized (previous.locks[stripe & (LOCK_STRIPES - 1)]) {
+                for (int i = stripe * WAYS; i < (stripe + 1) * WAYS; i++) {
+                    long key = previous.keys.get(i);
+                    long banEnd = previous.bannedUntil.get(i);
+                    if (banEnd != 0L) {
+                        banEnd = banEnd + shift == 0L ? -1L : banEnd + shift;
+                    }
+                    // Slots that could no longer start or escalate a ban carry nothing worth keeping.
+                    if (key == EMPTY || (banEnd == 0L && previous.violations[i] == 0)
+                            || (banEnd != 0L && now - banEnd >= maxBanMillis && previous.violations[i] == 0)) {
+                        continue;
+                    }
+                    merge(key, banEnd, previous.windowStarts[i] + shift, previous.violations[i],
+                            previous.strikes[i], now);
+                }
+            }
+        }
+    }
+
+    private void merge(long key, long banEnd, long windowStart, int violationCount, int strikeCount, long now) {
+        int stripe = stripe(key);
+        int base = stripe * WAYS;
+        synchronized (locks[stripe & (LOCK_STRIPES - 1)]) {
+            int slot = find(base, key);
+            if (slot >= 0) {
+                // Recorded here since the swap, so both boxes saw part of this address's history.
+                bannedUntil.set(slot, Math.max(bannedUntil.get(slot), banEnd));
+                windowStarts[slot] = Math.min(windowStarts[slot], windowStart);
+                violations[slot] += violationCount;
+                strikes[slot] = Math.max(strikes[slot], strikeCount);
+            } else {
+                slot = victim(base, now);
+                if (keys.get(slot) != EMPTY && bannedUntil.get(slot) > now && bannedUntil.get(slot) >= banEnd) {
+                    return;
+                }
+                bannedUntil.set(slot, 0L);
+                keys.set(slot, key);
+                bannedUntil.set(slot, banEnd);
+                windowStarts[slot] = windowStart;
+                violations[slot] = violationCount;
+                strikes[slot] = strikeCount;
+            }
+            if (banEnd > now) {
+                latestBanEnd.accumulateAndGet(banEnd, Math::max);
+            }
+        }
+    }
+
+    // Called with the stripe lock held.
+    private int find(int base, long key) {
+        for (int i = base; i < base + WAYS; i++) {
+            if (keys.get(i) == key) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Prefers an empty slot, then the unboxed slot whose window started longest ago, then the ban ending first.
+    private int victim(int base, long now) {
+        int unboxed = -1;
+        int boxed = base;
+        for (int i = base; i < base + WAYS; i++) {
+            if (keys.get(i) == EMPTY) {
+                return i;
+            }
+            if (bannedUntil.get(i) <= now) {
+                if (unboxed < 0 || windowStarts[i] < windowStarts[unboxed]) {
+                    unboxed = i;
+                }
+            } else if (bannedUntil.get(i) < bannedUntil.get(boxed)) {
+                boxed = i;
+            }
+        }
+        return unboxed >= 0 ? unboxed : boxed;
+    }
+
+    private int stripe(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & stripeMask;
+    }
+
+    private long now() {
+        return (System.nanoTime() - originNanos) / 1_000_000L + 1;
+    }
+}
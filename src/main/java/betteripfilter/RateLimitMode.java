@@ -0,0 +1,158 @@
+package betteripfilter;
+
+/**
+ * Rate limiting algorithms. Each one keeps its whole per-key state in a single long, so both
+ * {@link RateLimiter} engines can update it in place. Timestamps are milliseconds on a monotonic clock
+ * and must stay below 2^39.
+ */
+public enum RateLimitMode {
+    /**
+     * Counts every attempt in windows that start at the first attempt. Up to twice the limit can get
+     * through around a window boundary. State: window start (39 bits), attempts (24 bits).
+     */
+    FIXED_WINDOW {
+        @Override
+        long first(long now, long windowMillis, int maxAttempts) {
+            return result(pack(now, 1), maxAttempts >= 1);
+        }
+
+        @Override
+        long next(long state, long now, long windowMillis, int maxAttempts) {
+            long start = state >>> LOW_BITS;
+            long count = state & LOW_MASK;
+            if (now - start >= windowMillis) {
+                return first(now, windowMillis, maxAttempts);
+            }
+            long next = count < LOW_MASK ? pack(start, count + 1) : state;
+            return result(next, count + 1 <= maxAttempts);
+        }
+
+        @Override
+        long lastActivity(long state, long windowMillis) {
+            return state >>> LOW_BITS;
+        }
+    },
+    /**
+     * Weights the previous aligned window by how much of it still overlaps the sliding window and adds the
+     * current one. Only accepted attempts are counted. State: window index (31 bits), previous and current
+     * counts (16 bits each).
+     */
+    SLIDING_WINDOW {
+        @Override
+        long first(long now, long windowMillis, int maxAttempts) {
+            return result(((now / windowMillis) << 32) | 1L, maxAttempts >= 1);
+        }
+
+        @Override
+        long next(long state, long now, long windowMillis, int maxAttempts) {
+            long index = now / windowMillis;
+            long stateIndex = state >>> 32;
+            long previous;
+            long current;
+            if (index == stateIndex) {
+                previous = (state >>> 16) & 0xFFFFL;
+                current = state & 0xFFFFL;
+            } else {
+                previous = index == stateIndex + 1 ? state & 0xFFFFL : 0L;
+                current = 0L;
+            }
+            // previous * (remaining / window) + current + 1 <= max, in integer arithmetic.
+            long remaining = windowMillis - now % windowMillis;
+            boolean allowed = current < 0xFFFFL
+                    && previous * remaining + (current + 1) * windowMillis <= maxAttempts * windowMillis;
+            if (allowed) {
+                current++;
+            }
+            return result((index << 32) | (previous << 16) | current, allowed);
+        }
+
+        @Override
+        long lastActivity(long state, long windowMillis) {
+            return (state >>> 32) * windowMillis;
+        }
+    },
+    /**
+     * A bucket of {@code max-attempts} tokens refilled evenly over one window. Only accepted attempts take a
+     * token. State: last refill time (39 bits), tokens in 1/256 units (24 bits).
+     */
+    TOKEN_BUCKET {
+        @Override
+        long first(long now, long windowMillis, int maxAttempts) {
+            return result(pack(now, capacity(maxAttempts) - TOKEN), maxAttempts >= 1);
+        }
+
+        @Override
+        long next(long state, long now, long windowMillis, int maxAttempts) {
+            long last = state >>> LOW_BITS;
+            long tokens = state & LOW_MASK;
+            long capacity = capacity(maxAttempts);
+            long elapsed = now - last;
+            if (elapsed >= windowMillis) {
+                tokens = capacity;
+                last = now;
+            } else if (elapsed > 0) {
+                long refill = elapsed * capacity / windowMillis;
+                // Keep the old refill time until at least one unit has accrued, so frequent calls still refill.
+                if (refill > 0) {
+                    tokens = Math.min(capacity, tokens + refill);
+                    last = now;
+                }
+            }
+            boolean allowed = tokens >= TOKEN;
+            if (allowed) {
+                tokens -= TOKEN;
+            }
+            return result(pack(last, tokens), allowed);
+        }
+
+        @Override
+        long lastActivity(long state, long windowMillis) {
+            return state >>> LOW_BITS;
+        }
+    };
+
+    /**
+     * Largest usable {@code max-attempts}; the packed counters saturate above it.
+     */
+    public static final int MAX_ATTEMPTS_LIMIT = 0xFFFF;
+
+    private static final long DENIED = 1L << 63;
+    private static final int LOW_BITS = 24;
+    private static final long LOW_MASK = (1L << LOW_BITS) - 1;
+    private static final long TOKEN = 256;
+
+    /**
+     * Returns the state for a key's first attempt, combined with the verdict (see {@link #allowed}).
+     */
+    abstract long first(long now, long windowMillis, int maxAttempts);
+
+    /**
+     * Applies one attempt to {@code state} and returns the new state combined with the verdict.
+     */
+    abstract long next(long state, long now, long windowMillis, int maxAttempts);
+
+    /**
+     * Approximate time of the latest activity recorded in {@code state}, used for eviction and expiry.
+     */
+    abstract long lastActivity(long state, long windowMillis);
+
+    static boolean allowed(long result) {
+        return (result & DENIED) == 0;
+    }
+
+    static long state(long result) {
+        return result & ~DENIED;
+    }
+
+    private static long result(long state, boolean allowed) {
+        return allowed ? state : state | DENIED;
+    }
+
+    private static long pack(long time, long low) {
+        return (time << LOW_BITS) | low;
+    }
+
+    private static long capacity(int maxAttempts) {
+        return Math.min(maxAttempts, MAX_ATTEMPTS_LIMIT) * TOKEN;
+    }
+}
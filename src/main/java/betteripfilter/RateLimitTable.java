@@ -0,0 +1,120 @@
+package betteripfilter;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Preallocated, set-associative rate limit table keyed by primitive address keys. Each stripe holds
+ * {@link #WAYS} slots; a key lives in one slot of its stripe, and a full stripe evicts the slot whose
+ * window started longest ago. Memory is fixed at construction no matter how many distinct sources appear.
+ * <p>
+ * Keys and states are separate CAS cells, so a slot that is being evicted may briefly be charged to the
+ * wrong key. That only ever makes the limiter slightly more lenient for one attempt. Slot states are
+ * interpreted by the table's {@link RateLimitMode}.
+ */
+final class RateLimitTable {
+    static final int WAYS = 8;
+
+    private static final long EMPTY = 0L;
+
+    private final RateLimitMode mode;
+    private final AtomicLongArray keys;
+    private final AtomicLongArray states;
+    private final int stripeMask;
+    private final LongAdder evictions = new LongAdder();
+
+    RateLimitTable(int slots, RateLimitMode mode) {
+        this.mode = mode;
+        int stripes = Integer.highestOneBit(Math.max(1, Math.min(slots, 1 << 26) / WAYS));
+        this.keys = new AtomicLongArray(stripes * WAYS);
+        this.states = new AtomicLongArray(stripes * WAYS);
+        this.stripeMask = stripes - 1;
+    }
+
+    static long key(ClientAddress address) {
+        if (!address.isIpv6()) {
+            return (1L << 62) | Integer.toUnsignedLong(address.ipv4());
+        }
+        // IPv6 keys are folded to 62 bits; a collision only means two addresses share a counter.
+        long mixed = address.high() * 0x9E3779B97F4A7C15L ^ address.low();
+        mixed ^= mixed >>> 29;
+        return (1L << 63) | (mixed & ((1L << 62) - 1));
+    }
+
+    boolean tryAcquire(long key, long nowMillis, long windowMillis, int maxAttempts) {
+        int base = stripe(key) * WAYS;
+        for (int attempt = 0; attempt < 4; attempt++) {
+            for (int i = base; i < base + WAYS; i++) {
+                if (keys.get(i) == key) {
+                    return update(i, nowMillis, windowMillis, maxAttempts);
+                }
+            }
+            for (int i = base; i < base + WAYS; i++) {
+                if (keys.get(i) == EMPTY && keys.compareAndSet(i, EMPTY, key)) {
+                    return claim(i, nowMillis, windowMillis, maxAttempts);
+                }
+            }
+            int victim = oldest(base, windowMillis);
+            long victimKey = keys.get(victim);
+            if (keys.compareAndSet(victim, victimKey, key)) {
+                evictions.increment();
+                return claim(victim, nowMillis, windowMillis, maxAttempts);
+            }
+        }
+        // Persistent contention on one stripe: fail open rather than spin on the login thread.
+        return true;
+    }
+
+    int size() {
+        int used = 0;
+        for (int i = 0; i < keys.length(); i++) {
+            if (keys.get(i) != EMPTY) {
+                used++;
+            }
+        }
+        return used;
+    }
+
+    int capacity() {
+        return keys.length();
+    }
+
+    long evictions() {
+        return evictions.sum();
+    }
+
+    private boolean claim(int slot, long nowMillis, long windowMillis, int maxAttempts) {
+        long result = mode.first(nowMillis, windowMillis, maxAttempts);
+        states.set(slot, RateLimitMode.state(result));
+        return RateLimitMode.allowed(result);
+    }
+
+    private boolean update(int slot, long nowMillis, long windowMillis, int maxAttempts) {
+        while (true) {
+            long state = states.get(slot);
+            long result = mode.next(state, nowMillis, windowMillis, maxAttempts);
+            long next = RateLimitMode.state(result);
+            if (next == state || states.compareAndSet(slot, state, next)) {
+                return RateLimitMode.allowed(result);
+            }
+        }
+    }
+
+    private int oldest(int base, long windowMillis) {
+        int victim = base;
+        long oldestStart = Long.MAX_VALUE;
+        for (int i = base; i < base + WAYS; i++) {
+            long start = mode.lastActivity(states.get(i), windowMillis);
+            if (start < oldestStart) {
+                oldestStart = start;
+                victim = i;
+            }
+        }
+        return victim;
+    }
+
+    private int stripe(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & stripeMask;
+    }
+}
@@ -1,52 +1,162 @@
 package betteripfilter;
 
+import java.util.Iterator;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicInteger;
 
 public class RateLimiter {
-    private static final int CLEANUP_CHECK_INTERVAL = 64;
-    private final ConcurrentHashMap<String, AttemptBucket> buckets = new ConcurrentHashMap<>();
-    private final int cleanupThreshold;
-    private final AtomicInteger cleanupCounter = new AtomicInteger();
+    private static final int MIN_SWEEP_BATCH = 4096;
 
-    public RateLimiter(int cleanupThreshold) {
-        this.cleanupThreshold = cleanupThreshold;
+    private final ConcurrentHashMap<Object, AttemptBucket> buckets = new ConcurrentHashMap<>();
+    private final RateLimitMode mode;
+    private final RateLimitTable table;
+    private final long originNanos = System.nanoTime();
+
+    // Only touched by the sweeper; the map iterator is weakly consistent, so it can resume across runs.
+    private Iterator<Map.Entry<Object, AttemptBucket>> sweepCursor;
+    private volatile long lastSweepNanos;
+    private volatile int lastSweepScanned;
+    private volatile long sweptTotal;
+    private volatile long expiredTotal;
+
+    public RateLimiter() {
+        this(0, RateLimitMode.FIXED_WINDOW);
+    }
+
+    /**
+     * @param tableSlots when positive, addresses are tracked in a fixed-size {@link RateLimitTable} of about
+     *                   this many slots instead of the map; string keys always use the map
+     */
+    public RateLimiter(int tableSlots, RateLimitMode mode) {
+        this.mode = mode;
+        this.table = tableSlots > 0 ? new RateLimitTable(tableSlots, mode) : null;
+    }
+
+    public RateLimitMode getMode() {
+        return mode;
+    }
+
+    public boolean tryAcquire(ClientAddress address, long windowMillis, int maxAttempts) {
+        if (table != null) {
+            return table.tryAcquire(RateLimitTable.key(address), now(), windowMillis, maxAttempts);
+        }
+        return acquire(address, windowMillis, maxAttempts);
     }
 
     public boolean tryAcquire(String key, long windowMillis, int maxAttempts) {
-        long now = System.currentTimeMillis();
+        return acquire(key, windowMillis, maxAttempts);
+    }
+
+    public boolean isTableEngine() {
+        return table != null;
+    }
+
+    public int trackedKeys() {
+        return table != null ? table.size() : buckets.size();
+    }
+
+    public int tableCapacity() {
+        return table != null ? table.capacity() : 0;
+    }
+
+    public long tableEvictions() {
+        return table != null ? table.evictions() : 0L;
+    }
+
+    public long getLastSweepNanos() {
+        return lastSweepNanos;
+    }
+
+    public int getLastSweepScanned() {
+        return lastSweepScanned;
+    }
+
+    public long getSweptTotal() {
+        return sweptTotal;
+    }
+
+    public long getExpiredTotal() {
+        return expiredTotal;
+    }
+
+    /**
+     * Removes map entries idle for two windows, resuming where the previous call stopped. Each call scans
+     * enough entries to cover the whole map about once per window when called every {@code periodMillis}.
+     * Meant for a single background task, never for login threads.
+     */
+    public void sweep(long windowMillis, long periodMillis) {
+        if (buckets.isEmpty()) {
+            sweepCursor = null;
+            return;
+        }
+        long started = System.nanoTime();
+        long now = now();
+        long expiry = windowMillis * 2;
+        long budget = Math.max(MIN_SWEEP_BATCH, buckets.size() * periodMillis / Math.max(1L, windowMillis));
+        int scanned = 0;
+        int expired = 0;
+        Iterator<Map.Entry<Object, AttemptBucket>> cursor = sweepCursor;
+        while (scanned < budget) {
+            if (cursor == null) {
+                cursor = buckets.entrySet().iterator();
+            }
+            if (!cursor.hasNext()) {
+                // End of a full pass; the next run starts over.
+                cursor = null;
+                break;
+            }
+            Map.Entry<Object, AttemptBucket> entry = cursor.next();
+            scanned++;
+            if (isExpired(entry.getValue(), now, windowMillis, expiry)) {
+                // Re-check under the map's bin lock so a concurrent attempt on this key is never lost.
+                boolean[] removed = new boolean[1];
+                buckets.computeIfPresent(entry.getKey(), (key, bucket) -> {
+                    removed[0] = isExpired(bucket, now, windowMillis, expiry);
+                    return removed[0] ? null : bucket;
+                });
+                if (removed[0]) {
+                    expired++;
+                }
+            }
+        }
+        sweepCursor = cursor;
+        lastSweepScanned = scanned;
+        lastSweepNanos = System.nanoTime() - started;
+        sweptTotal += scanned;
+        expiredTotal += expired;
+    }
+
+    private boolean acquire(Object key, long windowMillis, int maxAttempts) {
+        long now = now();
         AttemptBucket bucket = buckets.compute(key, (ignored, existing) -> {
             if (existing == null) {
-                return new AttemptBucket(now, 1);
+                return new AttemptBucket(mode.first(now, windowMillis, maxAttempts));
             }
-            if (now - existing.windowStart >= windowMillis) {
-                existing.windowStart = now;
-                existing.count = 1;
-                return existing;
-            }
-            existing.count++;
+            existing.result = mode.next(RateLimitMode.state(existing.result), now, windowMillis, maxAttempts);
             return existing;
         });
 
-        boolean allowed = bucket.count <= maxAttempts;
-        if (buckets.size() > cleanupThreshold && cleanupCounter.incrementAndGet() % CLEANUP_CHECK_INTERVAL == 0) {
-            cleanup(now, windowMillis);
-        }
-        return allowed;
+        return RateLimitMode.allowed(bucket.result);
     }
 
-    private void cleanup(long now, long windowMillis) {
-        long expiry = windowMillis * 2;
-        buckets.entrySet().removeIf(entry -> now - entry.getValue().windowStart >= expiry);
+    private boolean isExpired(AttemptBucket bucket, long now, long windowMillis, long expiry) {
+        return now - mode.lastActivity(RateLimitMode.state(bucket.result), windowMillis) >= expiry;
+    }
+
+    /**
+     * Milliseconds since this limiter was created, starting at 1. Monotonic, so wall-clock changes neither
+     * reset nor extend windows.
+     */
+    private long now() {
+        return (System.nanoTime() - originNanos) / 1_000_000L + 1;
     }
 
     private static final class AttemptBucket {
-        private volatile long windowStart;
-        private volatile int count;
+        // Packed mode state plus the verdict of the latest attempt; only written inside compute().
+        private volatile long result;
 
-        private AttemptBucket(long windowStart, int count) {
-            this.windowStart = windowStart;
-            this.count = count;
+        private AttemptBucket(long result) {
+            this.result = result;
         }
     }
 }
@@ -0,0 +1,122 @@
+package betteripfilter;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Aggregate rate limits per subnet, e.g. per IPv4 /24 and /16 or IPv6 /64 and /48. One attempt is charged
+ * to every configured level of the address family in a single pass; it is denied if any level is over its
+ * limit. Counters live in a fixed-size {@link RateLimitTable}.
+ */
+public class SubnetRateLimiter {
+    private final Level[] ipv4Levels;
+    private final Level[] ipv6Levels;
+    private final RateLimitTable table;
+    private final long originNanos = System.nanoTime();
+
+    public SubnetRateLimiter(int tableSlots, RateLimitMode mode, List<Level> levels) {
+        this.ipv4Levels = levels.stream().filter(level -> !level.ipv6).toArray(Level[]::new);
+        this.ipv6Levels = levels.stream().filter(level -> level.ipv6).toArray(Level[]::new);
+        this.table = new RateLimitTable(tableSlots, mode);
+    }
+
+    public boolean isEmpty() {
+        return ipv4Levels.length == 0 && ipv6Levels.length == 0;
+    }
+
+    public int levelCount() {
+        return ipv4Levels.length + ipv6Levels.length;
+    }
+
+    public boolean tryAcquire(ClientAddress address, long windowMillis) {
+        long now = (System.nanoTime() - originNanos) / 1_000_000L + 1;
+        boolean allowed = true;
+        if (!address.isIpv6()) {
+            long ip = Integer.toUnsignedLong(address.ipv4());
+            for (Level level : ipv4Levels) {
+                long key = (1L << 62) | ((long) level.prefix << 32) | (ip & level.lowMask);
+                allowed &= table.tryAcquire(key, now, windowMillis, level.maxAttempts);
+            }
+            return allowed;
+        }
+        for (Level level : ipv6Levels) {
+            long mixed = (address.high() & level.highMask) * 0x9E3779B97F4A7C15L ^ (address.low() & level.lowMask);
+            mixed = (mixed ^ (mixed >>> 29)) * 0xBF58476D1CE4E5B9L + level.prefix;
+            long key = (1L << 63) | (mixed & ((1L << 62) - 1));
+            allowed &= table.tryAcquire(key, now, windowMillis, level.maxAttempts);
+        }
+        return allowed;
+    }
+
+    public static final class Level {
+        private final boolean ipv6;
+        private final int prefix;
+        private final int maxAttempts;
+        private final long highMask;
+        private final long lowMask;
+
+        private Level(boolean ipv6, int prefix, int maxAttempts) {
+            this.ipv6 = ipv6;
+            this.prefix = prefix;
+            this.maxAttempts = maxAttempts;
+            if (ipv6) {
+                this.highMask = IpAddresses.ipv6PrefixMask(Math.min(prefix, 64));
+                this.lowMask = IpAddresses.ipv6PrefixMask(Math.max(prefix - 64, 0));
+            } else {
+                this.highMask = 0L;
+                this.lowMask = prefix == 0 ? 0L : (0xFFFFFFFFL << (32 - prefix)) & 0xFFFFFFFFL;
+            }
+        }
+
+        /**
+         * Parses {@code prefix:max-attempts}, e.g. {@code 24:30} or {@code /48:200}, or returns null.
+         */
+        public static Level parse(String spec, boolean ipv6) {
+            if (spec == null) {
+                return null;
+            }
+            String trimmed = spec.trim().toLowerCase(Locale.ROOT);
+            int separator = trimmed.indexOf(':');
+            if (separator <= 0) {
+                return null;
+            }
+            String prefixText = trimmed.substring(0, separator).trim();
+            if (prefixText.startsWith("/")) {
+                prefixText = prefixText.substring(1);
+            }
+            try {
+                int prefix = Integer.parseInt(prefixText);
+                int maxAttempts = Integer.parseInt(trimmed.substring(separator + 1).trim());
+                if (prefix < 1 || prefix > (ipv6 ? 128 : 32) || maxAttempts < 1) {
+                    return null;
+                }
+                return new Level(ipv6, prefix, Math.min(maxAttempts, RateLimitMode.MAX_ATTEMPTS_LIMIT));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        public boolean isIpv6() {
+            return ipv6;
+        }
+
+        public int getPrefix() {
+            return prefix;
+        }
+
+        public int getMaxAttempts() {
+            return maxAttempts;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Level level && ipv6 == level.ipv6 && prefix == level.prefix
+                    && maxAttempts == level.maxAttempts;
+        }
+
+        @Override
+        public int hashCode() {
+            return (ipv6 ? 31 * 31 : 0) + 31 * prefix + maxAttempts;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package betteripfilter;
+
+import java.util.List;
+
+/**
+ * Hierarchical hashed timing wheel: four levels of 64 slots, each level 64 times coarser than the one below,
+ * covering about 194 days of ticks before deadlines are parked in the last level and re-placed on cascade.
+ * Scheduling is O(1), and advancing one tick only touches the slot that fires plus, every 64 ticks, the
+ * slot that cascades down, so the cost is independent of how many keys are scheduled.
+ * <p>
+ * Cancellation is lazy: a fired key is only a hint, and the owner checks it against its own state. Not
+ * thread-safe; the owner serializes access.
+ */
+final class TimingWheel {
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int LEVELS = 4;
+    private static final long MAX_SPAN = 1L << (SLOT_BITS * LEVELS);
+
+    private final long tickMillis;
+    private final Node[][] wheels = new Node[LEVELS][SLOTS];
+    private long currentTick;
+    private int size;
+
+    TimingWheel(long tickMillis, long nowMillis) {
+        this.tickMillis = tickMillis;
+        this.currentTick = nowMillis / tickMillis;
+    }
+
+    void schedule(String key, long deadlineMillis) {
+        long deadlineTick = Math.max(currentTick + 1, (deadlineMillis + tickMillis - 1) / tickMillis);
+        place(new Node(key, deadlineTick));
+        size++;
+    }
+
+    /**
+     * Advances to {@code nowMillis} and adds every key whose deadline passed to {@code expired}.
+     */
+    void advance(long nowMillis, List<String> expired) {
+        long target = nowMillis / tickMillis;
+        while (currentTick < target) {
+            long tick = ++currentTick;
+            for (int level = 1; level < LEVELS; level++) {
+                int shift = SLOT_BITS * level;
+                if ((tick & ((1L << shift) - 1)) != 0) {
+                    break;
+                }
+                int slot = (int) (tick >>> shift) & (SLOTS - 1);
+                Node node = wheels[level][slot];
+                wheels[level][slot] = null;
+                while (node != null) {
+                    Node next = node.next;
+                    place(node);
+                    node = next;
+                }
+            }
+            int slot = (int) tick & (SLOTS - 1);
+            Node node = wheels[0][slot];
+            wheels[0][slot] = null;
+            while (node != null) {
+                expired.add(node.key);
+                size--;
+                node = node.next;
+            }
+        }
+    }
+
+    /**
+     * Scheduled keys, including ones the owner has since cancelled or rescheduled.
+     */
+    int size() {
+        return size;
+    }
+
+    private void place(Node node) {
+        // Far deadlines are parked at the edge of the last level and placed again when that slot cascades.
+        long tick = Math.min(node.deadlineTick, currentTick + MAX_SPAN - 1);
+        long delta = tick - currentTick;
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= 1L << (SLOT_BITS * (level + 1))) {
+            level++;
+        }
+        int slot = (int) (tick >>> (SLOT_BITS * level)) & (SLOTS - 1);
+        node.next = wheels[level][slot];
+        wheels[level][slot] = node;
+    }
+
+    private static final class Node {
+        private final String key;
+        private final long deadlineTick;
+        private Node next;
+
+        private Node(String key, long deadlineTick) {
+            this.key = key;
+            this.deadlineTick = deadlineTick;
+        }
+    }
+}
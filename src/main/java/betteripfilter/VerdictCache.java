@@ -0,0 +1,60 @@
+package betteripfilter;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Direct-mapped, lock-free cache of IPv4 whitelist verdicts. Each slot packs the snapshot generation,
+ * the verdict and the address into one long, so a new snapshot invalidates every slot without clearing
+ * and a colliding address simply overwrites the slot.
+ */
+final class VerdictCache {
+    static final int MISS = -1;
+    static final int DENIED = 0;
+    static final int ALLOWED = 1;
+
+    private static final long ALLOWED_BIT = 1L << 32;
+
+    private final AtomicLongArray slots;
+    private final int mask;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    VerdictCache(int size) {
+        int capacity = Integer.highestOneBit(Math.max(16, Math.min(size, 1 << 24)) - 1) << 1;
+        this.slots = new AtomicLongArray(capacity);
+        this.mask = capacity - 1;
+    }
+
+    int get(int ip, int generation) {
+        long slot = slots.getOpaque(index(ip));
+        if ((int) slot == ip && (int) (slot >>> 33) == generation) {
+            hits.increment();
+            return (slot & ALLOWED_BIT) != 0 ? ALLOWED : DENIED;
+        }
+        misses.increment();
+        return MISS;
+    }
+
+    void put(int ip, int generation, boolean allowed) {
+        long slot = ((long) generation << 33) | (allowed ? ALLOWED_BIT : 0L) | Integer.toUnsignedLong(ip);
+        slots.setOpaque(index(ip), slot);
+    }
+
+    int capacity() {
+        return slots.length();
+    }
+
+    long hits() {
+        return hits.sum();
+    }
+
+    long misses() {
+        return misses.sum();
+    }
+
+    private int index(int ip) {
+        int h = ip * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+}
@@ -6,56 +6,192 @@ import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+/**
+ * Queues denial events and posts them as one JSON array per flush interval. The queue is bounded and
+ * drops the oldest event when full, at most {@code maxInFlight} requests run at once, and failed batches
+ * are retried with exponential backoff during which no new batches are started.
+ */
 public class WebhookNotifier {
+    private static final long MAX_BACKOFF_MILLIS = 60_000L;
+
     private final HttpClient client;
     private final Logger logger;
+    private final URI uri;
+    private final int timeoutMs;
+    private final long flushIntervalMillis;
+    private final int maxBatch;
+    private final int maxRetries;
+    private final BlockingQueue<Event> queue;
+    private final Semaphore inFlight;
+    private final ScheduledThreadPoolExecutor executor;
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private volatile long pausedUntil;
 
-    public WebhookNotifier(Logger logger) {
+    public WebhookNotifier(Logger logger, String url, int timeoutMs, int queueSize, long flushIntervalMillis,
+                           int maxBatch, int maxInFlight, int maxRetries) {
         this.logger = logger;
+        this.uri = url == null || url.isBlank() ? null : URI.create(url);
+        this.timeoutMs = timeoutMs;
+        this.flushIntervalMillis = Math.max(100L, flushIntervalMillis);
+        this.maxBatch = Math.max(1, maxBatch);
+        this.maxRetries = Math.max(0, maxRetries);
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, queueSize));
+        this.inFlight = new Semaphore(Math.max(1, maxInFlight));
         this.client = HttpClient.newBuilder()
                 .version(HttpClient.Version.HTTP_1_1)
                 .build();
+        this.executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "Better-IP-Filter-Webhook");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        if (uri != null) {
+            executor.scheduleWithFixedDelay(this::flush, this.flushIntervalMillis, this.flushIntervalMillis,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Queues one event without blocking. When the queue is full the oldest queued event is dropped.
+     */
+    public void send(DenyReason reason, String name, String ip) {
+        if (uri == null) {
+            return;
+        }
+        Event event = new Event(reason, name, ip, Instant.now());
+        while (!queue.offer(event)) {
+            if (queue.poll() != null) {
+                dropped.increment();
+            }
+        }
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public long getDelivered() {
+        return delivered.sum();
+    }
+
+    public long getDropped() {
+        return dropped.sum();
     }
 
-    public void send(String url, int timeoutMs, DenyReason reason, String name, String ip) {
-        if (url == null || url.isBlank()) {
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    /**
+     * Stops the flush task and makes one last attempt, without retries, to post what is still queued.
+     */
+    public void close() {
+        executor.shutdownNow();
+        if (uri == null) {
             return;
         }
-        String payload = buildPayload(reason, name, ip);
-        HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create(url))
+        List<Event> batch = new ArrayList<>();
+        queue.drainTo(batch);
+        for (int from = 0; from < batch.size(); from += maxBatch) {
+            List<Event> chunk = batch.subList(from, Math.min(batch.size(), from + maxBatch));
+            client.sendAsync(request(buildBatchPayload(chunk)), HttpResponse.BodyHandlers.discarding());
+        }
+    }
+
+    private void flush() {
+        while (!queue.isEmpty() && System.currentTimeMillis() >= pausedUntil && inFlight.tryAcquire()) {
+            List<Event> batch = new ArrayList<>(Math.min(maxBatch, queue.size()));
+            queue.drainTo(batch, maxBatch);
+            if (batch.isEmpty()) {
+                inFlight.release();
+                return;
+            }
+            post(buildBatchPayload(batch), batch.size(), 0);
+        }
+    }
+
+    // Called with an in-flight permit held; the permit is released when the batch succeeds or is given up.
+    private void post(String payload, int events, int attempt) {
+        client.sendAsync(request(payload), HttpResponse.BodyHandlers.discarding())
+                .whenComplete((response, error) -> {
+                    int status = response == null ? -1 : response.statusCode();
+                    if (error == null && status >= 200 && status < 300) {
+                        delivered.add(events);
+                        inFlight.release();
+                        return;
+                    }
+                    if (error != null) {
+                        logger.log(Level.FINE, "Failed to send webhook notification", error);
+                    } else {
+                        logger.fine("Webhook endpoint answered " + status);
+                    }
+                    boolean retryable = error != null || status == 429 || status >= 500;
+                    if (!retryable || attempt >= maxRetries || executor.isShutdown()) {
+                        failed.add(events);
+                        inFlight.release();
+                        return;
+                    }
+                    long backoff = Math.min(MAX_BACKOFF_MILLIS, flushIntervalMillis << Math.min(attempt + 1, 16));
+                    pausedUntil = System.currentTimeMillis() + backoff;
+                    executor.schedule(() -> post(payload, events, attempt + 1), backoff, TimeUnit.MILLISECONDS);
+                });
+    }
+
+    private HttpRequest request(String payload) {
+        return HttpRequest.newBuilder()
+                .uri(uri)
                 .timeout(Duration.ofMillis(timeoutMs))
                 .header("Content-Type", "application/json")
                 .POST(HttpRequest.BodyPublishers.ofString(payload))
                 .build();
+    }
 
-        client.sendAsync(request, HttpResponse.BodyHandlers.discarding())
-                .exceptionally(ex -> {
-                    logger.log(Level.FINE, "Failed to send webhook notification", ex);
-                    return null;
-                });
+    static String buildPayload(DenyReason reason, String name, String ip) {
+        return appendEvent(new StringBuilder(200), reason, name, ip, Instant.now()).toString();
+    }
+
+    static String buildBatchPayload(List<Event> events) {
+        StringBuilder builder = new StringBuilder(events.size() * 160 + 2).append('[');
+        for (int i = 0; i < events.size(); i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            Event event = events.get(i);
+            appendEvent(builder, event.reason, event.name, event.ip, event.time);
+        }
+        return builder.append(']').toString();
     }
 
-    private String buildPayload(DenyReason reason, String name, String ip) {
+    private static StringBuilder appendEvent(StringBuilder builder, DenyReason reason, String name, String ip,
+                                             Instant time) {
         String safeName = Objects.requireNonNullElse(name, "");
         String safeIp = Objects.requireNonNullElse(ip, "");
-        String time = Instant.now().toString();
-        return new StringBuilder(200)
+        return builder
                 .append('{')
                 .append("\"plugin\":\"Better-IP-Filter\",")
                 .append("\"reason\":\"").append(reason.name()).append("\",")
                 .append("\"name\":\"").append(escapeJson(safeName)).append("\",")
                 .append("\"ip\":\"").append(escapeJson(safeIp)).append("\",")
                 .append("\"time\":\"").append(time).append("\"")
-                .append('}')
-                .toString();
+                .append('}');
     }
 
-    private String escapeJson(String value) {
+    private static String escapeJson(String value) {
         StringBuilder builder = new StringBuilder(value.length() + 16);
         for (int i = 0; i < value.length(); i++) {
             char ch = value.charAt(i);
@@ -73,4 +209,18 @@ public class WebhookNotifier {
         }
         return builder.toString();
     }
+
+    static final class Event {
+        private final DenyReason reason;
+        private final String name;
+        private final String ip;
+        private final Instant time;
+
+        Event(DenyReason reason, String name, String ip, Instant time) {
+            this.reason = reason;
+            this.name = name;
+            this.ip = ip;
+            this.time = time;
+        }
+    }
 }
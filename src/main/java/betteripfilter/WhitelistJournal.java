@@ -0,0 +1,83 @@
+package betteripfilter;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Append-only log of whitelist changes kept next to {@code ips.yml}. Each line is {@code + entry} or
+ * {@code - entry}; a batch of lines is written with a single fsync.
+ */
+final class WhitelistJournal {
+    static final char ADD = '+';
+    static final char REMOVE = '-';
+
+    private final File file;
+    private FileChannel channel;
+
+    WhitelistJournal(File file) {
+        this.file = file;
+    }
+
+    long size() {
+        return file.length();
+    }
+
+    void append(List<String> lines) throws IOException {
+        if (lines.isEmpty()) {
+            return;
+        }
+        StringBuilder builder = new StringBuilder(lines.size() * 20);
+        for (String line : lines) {
+            builder.append(line).append('\n');
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(builder.toString().getBytes(StandardCharsets.UTF_8));
+        if (channel == null || !channel.isOpen()) {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND);
+        }
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    List<String> read() throws IOException {
+        if (!file.isFile()) {
+            return new ArrayList<>();
+        }
+        return Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+    }
+
+    void reset() throws IOException {
+        close();
+        Files.deleteIfExists(file.toPath());
+    }
+
+    void close() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+            // Every batch was already forced to disk.
+        }
+        channel = null;
+    }
+
+    static String line(char operation, String entry) {
+        return operation + " " + entry;
+    }
+}
@@ -1,17 +1,36 @@
 package betteripfilter.command;
 
 import betteripfilter.BetterIpFilterPlugin;
+import betteripfilter.BlocklistStore;
+import betteripfilter.DeniedLogWriter;
+import betteripfilter.DenyReason;
+import betteripfilter.FilterMetrics;
+import betteripfilter.FilterRuntime;
+import betteripfilter.FilterSettings;
 import betteripfilter.IpStore;
+import betteripfilter.PenaltyBox;
+import betteripfilter.RateLimiter;
+import betteripfilter.SubnetRateLimiter;
+import betteripfilter.WebhookNotifier;
 import org.bukkit.ChatColor;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandExecutor;
 import org.bukkit.command.CommandSender;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class IpfCommand implements CommandExecutor {
+    private static final long IMPORT_PROGRESS_LINES = 100_000L;
+
     private final BetterIpFilterPlugin plugin;
     private final IpStore store;
+    private final AtomicBoolean importRunning = new AtomicBoolean();
 
     public IpfCommand(BetterIpFilterPlugin plugin, IpStore store) {
         this.plugin = plugin;
@@ -31,10 +50,18 @@ public class IpfCommand implements CommandExecutor {
                 return handleAdd(sender, args);
             case "remove":
                 return handleRemove(sender, args);
+            case "ban":
+                return handleBan(sender, args);
+            case "unban":
+                return handleUnban(sender, args);
             case "list":
-                return handleList(sender);
+                return handleList(sender, args);
+            case "import":
+                return handleImport(sender, args);
             case "status":
                 return handleStatus(sender);
+            case "stats":
+                return handleStats(sender);
             case "reload":
                 return handleReload(sender);
             case "on":
@@ -51,26 +78,62 @@ public class IpfCommand implements CommandExecutor {
         if (!hasPermission(sender, "betteripfilter.add")) {
             return true;
         }
+        return addEntry(sender, args, store, "added", "addedTimed", "alreadyExists");
+    }
+
+    private boolean handleRemove(CommandSender sender, String[] args) {
+        if (!hasPermission(sender, "betteripfilter.remove")) {
+            return true;
+        }
+        return removeEntry(sender, args, store, "removed", "notFound");
+    }
+
+    private boolean handleBan(CommandSender sender, String[] args) {
+        if (!hasPermission(sender, "betteripfilter.ban")) {
+            return true;
+        }
+        return addEntry(sender, args, plugin.getBanStore(), "banAdded", "banAddedTimed", "alreadyBanned");
+    }
+
+    private boolean handleUnban(CommandSender sender, String[] args) {
+        if (!hasPermission(sender, "betteripfilter.ban")) {
+            return true;
+        }
+        return removeEntry(sender, args, plugin.getBanStore(), "unbanned", "notBanned");
+    }
+
+    private boolean addEntry(CommandSender sender, String[] args, IpStore target, String addedKey,
+                             String addedTimedKey, String existsKey) {
         if (args.length < 2) {
             sendUsage(sender);
             return true;
         }
-        if (!store.isAvailable()) {
+        if (!target.isAvailable()) {
             sender.sendMessage(plugin.prefixed(plugin.msg("storeUnavailable")));
             return true;
         }
         String ip = args[1];
-        if (!store.isValidIp(ip)) {
+        if (!target.isValidIp(ip)) {
             sender.sendMessage(plugin.prefixed(plugin.msg("invalidIp").replace("{ip}", ip)));
             return true;
         }
-        if (store.contains(ip)) {
-            sender.sendMessage(plugin.prefixed(plugin.msg("alreadyExists").replace("{ip}", ip)));
+        long duration = args.length > 2 ? parseDuration(args[2]) : 0L;
+        if (duration < 0) {
+            sender.sendMessage(plugin.prefixed(plugin.msg("invalidDuration").replace("{duration}", args[2])));
+            return true;
+        }
+        // Adding to a timed entry resets its expiry or, without a duration, makes it permanent.
+        if (isPermanent(target, ip)) {
+            sender.sendMessage(plugin.prefixed(plugin.msg(existsKey).replace("{ip}", ip)));
             return true;
         }
-        if (store.add(ip)) {
-            sender.sendMessage(plugin.prefixed(plugin.msg("added").replace("{ip}", ip)));
-        } else if (!store.isAvailable()) {
+        boolean added = duration > 0 ? target.add(ip, System.currentTimeMillis() + duration) : target.add(ip);
+        if (added) {
+            String message = duration > 0
+                    ? plugin.msg(addedTimedKey).replace("{duration}", formatDuration(duration))
+                    : plugin.msg(addedKey);
+            sender.sendMessage(plugin.prefixed(message.replace("{ip}", ip)));
+        } else if (!target.isAvailable()) {
             sender.sendMessage(plugin.prefixed(plugin.msg("storeUnavailable")));
         } else {
             sender.sendMessage(plugin.prefixed(plugin.msg("failedUpdate").replace("{ip}", ip)));
@@ -78,28 +141,30 @@ public class IpfCommand implements CommandExecutor {
         return true;
     }
 
-    private boolean handleRemove(CommandSender sender, String[] args) {
-        if (!hasPermission(sender, "betteripfilter.remove")) {
-            return true;
-        }
+    static boolean isPermanent(IpStore target, String ip) {
+        return target.contains(ip) && target.getExpiry(ip) == 0;
+    }
+
+    private boolean removeEntry(CommandSender sender, String[] args, IpStore target, String removedKey,
+                                String notFoundKey) {
         if (args.length < 2) {
             sendUsage(sender);
             return true;
         }
-        if (!store.isAvailable()) {
+        if (!target.isAvailable()) {
             sender.sendMessage(plugin.prefixed(plugin.msg("storeUnavailable")));
             return true;
         }
         String ip = args[1];
-        if (!store.isValidIp(ip)) {
+        if (!target.isValidIp(ip)) {
             sender.sendMessage(plugin.prefixed(plugin.msg("invalidIp").replace("{ip}", ip)));
             return true;
         }
-        if (!store.contains(ip)) {
-            sender.sendMessage(plugin.prefixed(plugin.msg("notFound").replace("{ip}", ip)));
-        } else if (store.remove(ip)) {
-            sender.sendMessage(plugin.prefixed(plugin.msg("removed").replace("{ip}", ip)));
-        } else if (!store.isAvailable()) {
+        if (!target.contains(ip)) {
+            sender.sendMessage(plugin.prefixed(plugin.msg(notFoundKey).replace("{ip}", ip)));
+        } else if (target.remove(ip)) {
+            sender.sendMessage(plugin.prefixed(plugin.msg(removedKey).replace("{ip}", ip)));
+        } else if (!target.isAvailable()) {
             sender.sendMessage(plugin.prefixed(plugin.msg("storeUnavailable")));
         } else {
             sender.sendMessage(plugin.prefixed(plugin.msg("failedUpdate").replace("{ip}", ip)));
@@ -107,13 +172,80 @@ public class IpfCommand implements CommandExecutor {
         return true;
     }
 
+    private boolean handleImport(CommandSender sender, String[] args) {
+        if (!hasPermission(sender, "betteripfilter.import")) {
+            return true;
+        }
+        if (args.length < 2) {
+            sendUsage(sender);
+            return true;
+        }
+        if (!store.isAvailable()) {
+            sender.sendMessage(plugin.prefixed(plugin.msg("storeUnavailable")));
+            return true;
+        }
+        String fileName = args[1];
+        Path dataFolder = plugin.getDataFolder().toPath().toAbsolutePath().normalize();
+        Path path = dataFolder.resolve(fileName).normalize();
+        if (!path.startsWith(dataFolder) || !Files.isRegularFile(path)) {
+            sender.sendMessage(plugin.prefixed(plugin.msg("importNotFound").replace("{file}", fileName)));
+            return true;
+        }
+        if (!importRunning.compareAndSet(false, true)) {
+            sender.sendMessage(plugin.prefixed(plugin.msg("importRunning")));
+            return true;
+        }
+
+        sender.sendMessage(plugin.prefixed(plugin.msg("importStarted").replace("{file}", fileName)));
+        plugin.getServer().getScheduler().runTaskAsynchronously(plugin, () -> {
+            long[] nextReport = {IMPORT_PROGRESS_LINES};
+            try {
+                IpStore.ImportResult result = store.importFile(path, lines -> {
+                    if (lines >= nextReport[0]) {
+                        nextReport[0] = lines + IMPORT_PROGRESS_LINES;
+                        reply(sender, plugin.msg("importProgress").replace("{lines}", String.valueOf(lines)));
+                    }
+                });
+                reply(sender, plugin.msg("importDone")
+                        .replace("{file}", fileName)
+                        .replace("{added}", String.valueOf(result.getAdded()))
+                        .replace("{valid}", String.valueOf(result.getValid()))
+                        .replace("{invalid}", String.valueOf(result.getInvalid())));
+                for (String sample : result.getInvalidSamples()) {
+                    reply(sender, plugin.msg("importInvalidLine").replace("{line}", sample));
+                }
+            } catch (IOException | RuntimeException ex) {
+                plugin.getLogger().warning("Failed to import " + fileName + ": " + ex.getMessage());
+                reply(sender, plugin.msg("importFailed").replace("{file}", fileName));
+            } finally {
+                importRunning.set(false);
+            }
+        });
+        return true;
+    }
+
+    private void reply(CommandSender sender, String message) {
+        plugin.getServer().getScheduler().runTask(plugin, () -> sender.sendMessage(plugin.prefixed(message)));
+    }
+
     @SuppressWarnings("deprecation")
-    private boolean handleList(CommandSender sender) {
+    private boolean handleList(CommandSender sender, String[] args) {
         if (!hasPermission(sender, "betteripfilter.list")) {
             return true;
         }
-        List<String> ips = store.list();
-        sender.sendMessage(plugin.prefixed(plugin.msg("listHeader").replace("{count}", String.valueOf(ips.size()))));
+        boolean bans = args.length > 1 && "bans".equalsIgnoreCase(args[1]);
+        IpStore target = bans ? plugin.getBanStore() : store;
+        List<String> ips = target.list();
+        Map<String, Long> expiries = target.listExpiries();
+        if (!expiries.isEmpty()) {
+            long now = System.currentTimeMillis();
+            ips.replaceAll(ip -> {
+                Long expiresAt = expiries.get(ip);
+                return expiresAt == null ? ip : ip + " (" + formatDuration(Math.max(0L, expiresAt - now)) + ")";
+            });
+        }
+        String header = plugin.msg(bans ? "bansHeader" : "listHeader");
+        sender.sendMessage(plugin.prefixed(header.replace("{count}", String.valueOf(ips.size()))));
         if (ips.isEmpty()) {
             sender.sendMessage(plugin.prefixed(ChatColor.GRAY + "- (empty)"));
         } else {
@@ -130,21 +262,118 @@ public class IpfCommand implements CommandExecutor {
         if (!hasPermission(sender, "betteripfilter.status")) {
             return true;
         }
+        FilterRuntime runtime = plugin.getRuntime();
+        FilterSettings settings = runtime.getSettings();
         sender.sendMessage(plugin.prefixed(plugin.msg("statusHeader")));
         sender.sendMessage(plugin.prefixed("&7Enabled: &f" + plugin.isFilteringEnabled()));
         sender.sendMessage(plugin.prefixed("&7Store available: &f" + store.isAvailable()));
-        sender.sendMessage(plugin.prefixed("&7Whitelist entries: &f" + store.list().size()));
-        sender.sendMessage(plugin.prefixed("&7Proxy mode: &f" + plugin.getProxyMode()
-                + " &7(trusted: &f" + plugin.getTrustedForwardedIpsCount() + "&7)"));
-        sender.sendMessage(plugin.prefixed("&7Rate limit: &f" + plugin.isRateLimitEnabled()
-                + " &7(window: &f" + (plugin.getRateLimitWindowMillis() / 1000L)
-                + "s&7, max: &f" + plugin.getRateLimitMaxAttempts() + "&7)"));
-        sender.sendMessage(plugin.prefixed("&7Failsafe mode: &f" + plugin.getFailsafeMode()));
-        sender.sendMessage(plugin.prefixed("&7Webhook enabled: &f" + plugin.isWebhookEnabled()
-                + " &7(configured: &f" + (plugin.isWebhookConfigured() ? "yes" : "no") + "&7)"));
+        sender.sendMessage(plugin.prefixed("&7Whitelist entries: &f" + store.size()
+                + " &7(timed: &f" + store.getTimedCount() + "&7)"));
+        IpStore bans = plugin.getBanStore();
+        sender.sendMessage(plugin.prefixed("&7Ban entries: &f" + bans.size()
+                + " &7(timed: &f" + bans.getTimedCount() + "&7)"));
+        if (store.getLastSaveError() != null) {
+            sender.sendMessage(plugin.prefixed("&7Last save error: &c" + store.getLastSaveError()));
+        }
+        if (store.getVerdictCacheCapacity() > 0) {
+            sender.sendMessage(plugin.prefixed("&7Verdict cache: &f" + store.getVerdictCacheCapacity()
+                    + " &7slots (hits: &f" + store.getVerdictCacheHits()
+                    + "&7, misses: &f" + store.getVerdictCacheMisses() + "&7)"));
+        }
+        if (settings.isBlocklistEnabled()) {
+            BlocklistStore blocklist = plugin.getBlocklistStore();
+            sender.sendMessage(plugin.prefixed("&7Blocklist entries: &f" + blocklist.size()
+                    + " &7(" + (settings.isBlocklistFirst() ? "BLOCK_FIRST" : "ALLOW_FIRST")
+                    + "&7, invalid: &f" + blocklist.getInvalidCount()
+                    + "&7, last load: &f" + (blocklist.getLastLoadNanos() / 1_000_000L) + "ms&7)"));
+            if (blocklist.getLastError() != null) {
+                sender.sendMessage(plugin.prefixed("&7Blocklist error: &c" + blocklist.getLastError()));
+            }
+        }
+        sender.sendMessage(plugin.prefixed("&7Proxy mode: &f" + settings.getProxyMode()
+                + " &7(trusted: &f" + settings.getTrustedProxies().size() + "&7)"));
+        sender.sendMessage(plugin.prefixed("&7Handshake filter: &f" + plugin.isHandshakeFilterActive()));
+        sender.sendMessage(plugin.prefixed("&7Rate limit: &f" + settings.isRateLimitEnabled()
+                + " &7(mode: &f" + runtime.getRateLimiter().getMode()
+                + "&7, window: &f" + (settings.getRateLimitWindowMillis() / 1000L)
+                + "s&7, max: &f" + settings.getRateLimitMaxAttempts() + "&7)"));
+        SubnetRateLimiter subnetLimiter = runtime.getSubnetRateLimiter();
+        if (settings.isSubnetRateLimitEnabled() && subnetLimiter != null) {
+            sender.sendMessage(plugin.prefixed("&7Subnet rate limit: &f"
+                    + subnetLimiter.levelCount() + " &7levels"));
+        }
+        PenaltyBox penaltyBox = runtime.getPenaltyBox();
+        if (penaltyBox != null) {
+            sender.sendMessage(plugin.prefixed("&7Penalty box: &f" + penaltyBox.activeCount()
+                    + " &7active (bans started: &f" + penaltyBox.getBanCount() + "&7)"));
+        }
+        RateLimiter limiter = runtime.getRateLimiter();
+        if (limiter.isTableEngine()) {
+            sender.sendMessage(plugin.prefixed("&7Rate limit table: &f" + limiter.trackedKeys() + "&7/&f"
+                    + limiter.tableCapacity() + " &7slots (evictions: &f" + limiter.tableEvictions() + "&7)"));
+        } else {
+            sender.sendMessage(plugin.prefixed("&7Rate limit keys: &f" + limiter.trackedKeys()
+                    + " &7(last sweep: &f" + limiter.getLastSweepScanned() + " &7scanned in &f"
+                    + (limiter.getLastSweepNanos() / 1000L) + "us&7, expired total: &f"
+                    + limiter.getExpiredTotal() + "&7)"));
+        }
+        sender.sendMessage(plugin.prefixed("&7Failsafe mode: &f"
+                + (settings.isFailsafeDenyAll() ? "DENY_ALL" : "ALLOW_ALL")));
+        DeniedLogWriter deniedLog = runtime.getDeniedLogWriter();
+        if (deniedLog != null) {
+            sender.sendMessage(plugin.prefixed("&7Denied log queue: &f" + deniedLog.getQueueDepth()
+                    + " &7(dropped: &f" + deniedLog.getOverflowCount() + "&7)"));
+        }
+        sender.sendMessage(plugin.prefixed("&7Webhook enabled: &f" + settings.isWebhookEnabled()
+                + " &7(configured: &f" + (settings.isWebhookConfigured() ? "yes" : "no") + "&7)"));
+        if (settings.isWebhookConfigured()) {
+            WebhookNotifier webhook = runtime.getWebhookNotifier();
+            sender.sendMessage(plugin.prefixed("&7Webhook queue: &f" + webhook.getQueueDepth()
+                    + " &7(delivered: &f" + webhook.getDelivered() + "&7, dropped: &f" + webhook.getDropped()
+                    + "&7, failed: &f" + webhook.getFailed() + "&7)"));
+        }
+        return true;
+    }
+
+    private boolean handleStats(CommandSender sender) {
+        if (!hasPermission(sender, "betteripfilter.stats")) {
+            return true;
+        }
+        FilterMetrics metrics = plugin.getMetrics();
+        FilterRuntime runtime = plugin.getRuntime();
+        sender.sendMessage(plugin.prefixed("&7Decisions: &f" + metrics.getDecisions()
+                + " &7(allowed: &f" + metrics.getAllowed() + "&7)"));
+        for (DenyReason reason : DenyReason.values()) {
+            long count = metrics.getDenied(reason);
+            if (count > 0) {
+                sender.sendMessage(plugin.prefixed("&7  " + reason.name() + ": &f" + count));
+            }
+        }
+        sender.sendMessage(plugin.prefixed("&7Pre-login latency: &fp50 "
+                + micros(metrics.getLatencyQuantileNanos(0.5))
+                + " &7/ &fp99 " + micros(metrics.getLatencyQuantileNanos(0.99))
+                + " &7/ &fp99.9 " + micros(metrics.getLatencyQuantileNanos(0.999))
+                + " &7/ &fmax " + micros(metrics.getLatencyMaxNanos())));
+        if (metrics.getHandshakeChecks() > 0) {
+            sender.sendMessage(plugin.prefixed("&7Handshake latency: &fp50 "
+                    + micros(metrics.getHandshakeLatencyQuantileNanos(0.5))
+                    + " &7/ &fp99 " + micros(metrics.getHandshakeLatencyQuantileNanos(0.99))
+                    + " &7/ &fp99.9 " + micros(metrics.getHandshakeLatencyQuantileNanos(0.999))
+                    + " &7/ &fmax " + micros(metrics.getHandshakeLatencyMaxNanos())));
+        }
+        sender.sendMessage(plugin.prefixed("&7Whitelist entries: &f" + store.size()
+                + " &7| rate limit keys: &f" + runtime.getRateLimiter().trackedKeys()));
+        DeniedLogWriter deniedLog = runtime.getDeniedLogWriter();
+        sender.sendMessage(plugin.prefixed("&7Queues: &fdenied.log "
+                + (deniedLog == null ? 0 : deniedLog.getQueueDepth())
+                + " &7| &fwebhook " + runtime.getWebhookNotifier().getQueueDepth()));
         return true;
     }
 
+    private static String micros(long nanos) {
+        return String.format(Locale.ROOT, "%.1fus", nanos / 1000.0);
+    }
+
     private boolean handleReload(CommandSender sender) {
         if (!hasPermission(sender, "betteripfilter.reload")) {
             return true;
@@ -153,6 +382,7 @@ public class IpfCommand implements CommandExecutor {
             plugin.reloadConfig();
             plugin.loadSettings();
             store.load();
+            plugin.getBanStore().load();
             if (store.isAvailable()) {
                 sender.sendMessage(plugin.prefixed(plugin.msg("reloaded")));
             } else {
@@ -184,6 +414,61 @@ public class IpfCommand implements CommandExecutor {
     }
 
     private void sendUsage(CommandSender sender) {
-        sender.sendMessage(plugin.prefixed("&cUsage: /ipf <add|remove|list|status|reload|on|off>"));
+        sender.sendMessage(plugin.prefixed(
+                "&cUsage: /ipf <add|remove|ban|unban|import|list|status|stats|reload|on|off>"));
+    }
+
+    /**
+     * Parses durations like {@code 90s}, {@code 30m}, {@code 2h}, {@code 7d} or {@code 1d12h} into millis, or
+     * returns -1.
+     */
+    static long parseDuration(String value) {
+        long total = 0;
+        long number = -1;
+        for (int i = 0; i < value.length(); i++) {
+            char ch = Character.toLowerCase(value.charAt(i));
+            if (ch >= '0' && ch <= '9') {
+                number = (number < 0 ? 0 : number) * 10 + (ch - '0');
+                if (number > 1_000_000L) {
+                    return -1L;
+                }
+                continue;
+            }
+            long unit = switch (ch) {
+                case 's' -> 1000L;
+                case 'm' -> 60_000L;
+                case 'h' -> 3_600_000L;
+                case 'd' -> 86_400_000L;
+                case 'w' -> 604_800_000L;
+                default -> -1L;
+            };
+            if (unit < 0 || number < 0) {
+                return -1L;
+            }
+            total += number * unit;
+            number = -1;
+        }
+        return number >= 0 || total == 0 ? -1L : total;
+    }
+
+    static String formatDuration(long millis) {
+        long seconds = millis / 1000L;
+        if (seconds < 60) {
+            return seconds + "s";
+        }
+        StringBuilder builder = new StringBuilder();
+        long days = seconds / 86_400L;
+        long hours = seconds / 3_600L % 24;
+        long minutes = seconds / 60L % 60;
+        if (days > 0) {
+            builder.append(days).append('d');
+        }
+        if (hours > 0) {
+            builder.append(hours).append('h');
+        }
+        if (minutes > 0 && days == 0) {
+            builder.append(minutes).append('m');
+        }
+        return builder.toString();
     }
 }
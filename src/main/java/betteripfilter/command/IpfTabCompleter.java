@@ -5,27 +5,53 @@ import org.bukkit.command.Command;
 import org.bukkit.command.CommandSender;
 import org.bukkit.command.TabCompleter;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Locale;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 public class IpfTabCompleter implements TabCompleter {
+    private static final List<String> SUBCOMMANDS =
+            Arrays.asList("add", "remove", "ban", "unban", "import", "list", "status", "stats", "reload", "on", "off");
+    private static final Set<String> IGNORED_FILES = Set.of("config.yml", "ips.yml", "ips.bin", "ips.journal",
+            "bans.yml", "bans.bin", "bans.journal");
+    private static final List<String> DURATIONS = Arrays.asList("30m", "1h", "2h", "1d", "7d");
+
     private final IpStore store;
+    private final IpStore banStore;
+    private final File dataFolder;
 
-    public IpfTabCompleter(IpStore store) {
+    public IpfTabCompleter(IpStore store, IpStore banStore, File dataFolder) {
         this.store = store;
+        this.banStore = banStore;
+        this.dataFolder = dataFolder;
     }
 
     @Override
     public List<String> onTabComplete(CommandSender sender, Command command, String alias, String[] args) {
         if (args.length == 1) {
-            return filterPrefix(Arrays.asList("add", "remove", "list", "status", "reload", "on", "off"), args[0]);
+            return filterPrefix(SUBCOMMANDS, args[0]);
         }
         if (args.length == 2 && "remove".equalsIgnoreCase(args[0])) {
             return filterPrefix(store.list(), args[1]);
         }
+        if (args.length == 2 && "unban".equalsIgnoreCase(args[0])) {
+            return filterPrefix(banStore.list(), args[1]);
+        }
+        if (args.length == 2 && "list".equalsIgnoreCase(args[0])) {
+            return filterPrefix(Arrays.asList("bans"), args[1]);
+        }
+        if (args.length == 3 && ("add".equalsIgnoreCase(args[0]) || "ban".equalsIgnoreCase(args[0]))) {
+            return filterPrefix(DURATIONS, args[2]);
+        }
+        if (args.length == 2 && "import".equalsIgnoreCase(args[0])) {
+            String[] files = dataFolder.list((dir, name) ->
+                    !IGNORED_FILES.contains(name) && new File(dir, name).isFile());
+            return filterPrefix(files == null ? new ArrayList<>() : Arrays.asList(files), args[1]);
+        }
         return new ArrayList<>();
     }
 
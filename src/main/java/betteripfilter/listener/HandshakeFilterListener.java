@@ -0,0 +1,68 @@
+package betteripfilter.listener;
+
+import betteripfilter.BetterIpFilterPlugin;
+import betteripfilter.ClientAddress;
+import betteripfilter.DenyReason;
+import betteripfilter.FilterRuntime;
+import com.destroystokyo.paper.event.player.PlayerHandshakeEvent;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+
+/**
+ * Turns addresses away at the handshake, before login start, session authentication and the async login
+ * workers, using the same decision as {@link IpFilterListener}. Only the address is known here, so denials are
+ * logged without a name.
+ * <p>
+ * Paper routes every handshake through the event as soon as any listener exists, so this listener is only
+ * registered while {@code early-filter.enabled} is set.
+ */
+public class HandshakeFilterListener implements Listener {
+    private final BetterIpFilterPlugin plugin;
+    private final IpFilterListener filterListener;
+    private volatile boolean proxyLogicActive;
+
+    public HandshakeFilterListener(BetterIpFilterPlugin plugin, IpFilterListener filterListener) {
+        this.plugin = plugin;
+        this.filterListener = filterListener;
+    }
+
+    @EventHandler(priority = EventPriority.HIGHEST)
+    @SuppressWarnings("deprecation")
+    public void onHandshake(PlayerHandshakeEvent event) {
+        // The event starts cancelled, meaning "not handled". It arrives uncancelled when the server's own
+        // BungeeCord forwarding handles the handshake, which then comes from the proxy and must be left alone.
+        if (!event.isCancelled()) {
+            if (!proxyLogicActive) {
+                proxyLogicActive = true;
+                plugin.getLogger().warning("Server proxy forwarding is active; early-filter has no effect.");
+            }
+            return;
+        }
+        if (!plugin.isFilteringEnabled()) {
+            return;
+        }
+        ClientAddress ip = ClientAddress.parse(event.getOriginalSocketAddressHostname());
+        if (ip == null) {
+            return;
+        }
+        long started = System.nanoTime();
+        FilterRuntime runtime = plugin.getRuntime();
+        DenyReason reason = filterListener.filter(runtime, ip, null, true);
+        if (reason != null) {
+            // Uncancelling hands the handshake to this event, which then fails it.
+            event.setCancelled(false);
+            event.setFailed(true);
+            event.setFailMessage(runtime.getSettings().getKickMessage(reason));
+        }
+        plugin.getMetrics().recordHandshake(reason, System.nanoTime() - started);
+    }
+
+    /**
+     * Whether the server's own proxy forwarding was seen handling handshakes, in which case this listener
+     * neither filters nor counts attempts.
+     */
+    public boolean isProxyLogicActive() {
+        return proxyLogicActive;
+    }
+}
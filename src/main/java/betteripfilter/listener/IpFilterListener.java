@@ -1,8 +1,14 @@
 package betteripfilter.listener;
 
 import betteripfilter.BetterIpFilterPlugin;
+import betteripfilter.BlocklistStore;
+import betteripfilter.ClientAddress;
 import betteripfilter.DenyReason;
+import betteripfilter.FilterRuntime;
+import betteripfilter.FilterSettings;
 import betteripfilter.IpStore;
+import betteripfilter.PenaltyBox;
+import betteripfilter.SubnetRateLimiter;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
@@ -17,56 +23,104 @@ public class IpFilterListener implements Listener {
         this.store = store;
     }
 
-    @SuppressWarnings("deprecation")
     @EventHandler(priority = EventPriority.HIGHEST)
+    @SuppressWarnings("deprecation")
     public void onPreLogin(AsyncPlayerPreLoginEvent event) {
         if (!plugin.isFilteringEnabled()) {
             return;
         }
+        long started = System.nanoTime();
+        FilterRuntime runtime = plugin.getRuntime();
+        // An attempt that passed the handshake filter was already counted against the rate limits there.
+        DenyReason reason = filter(runtime, plugin.resolveClientAddress(event), event.getName(),
+                !plugin.isHandshakeFilterActive());
+        if (reason != null) {
+            event.disallow(result(reason), runtime.getSettings().getKickMessage(reason));
+        }
+        plugin.getMetrics().record(reason, System.nanoTime() - started);
+    }
 
-        String ip = plugin.resolveClientIp(event);
-        String name = event.getName();
+    /**
+     * Decides one connection attempt and returns why it was denied, or null if it was let through. Shared by the
+     * handshake and pre-login stages; {@code countAttempt} charges the attempt to the rate limits.
+     */
+    DenyReason filter(FilterRuntime runtime, ClientAddress ip, String name, boolean countAttempt) {
+        FilterSettings settings = runtime.getSettings();
+        // Boxed addresses were already reported when the box closed; each further attempt is only counted.
+        PenaltyBox penaltyBox = runtime.getPenaltyBox();
+        if (penaltyBox != null && penaltyBox.isPenalized(ip)) {
+            return DenyReason.PENALIZED;
+        }
 
         boolean bypassWhitelist = false;
-        if (plugin.isProxyModeEnabled() && plugin.hasTrustedForwardedIps()) {
-            if (!plugin.isTrustedProxy(ip)) {
-                if (plugin.isFailsafeDenyAll()) {
-                    event.disallow(AsyncPlayerPreLoginEvent.Result.KICK_OTHER,
-                            plugin.prefixed(plugin.msg("proxyNotTrusted")));
-                    plugin.handleDenied(DenyReason.PROXY_NOT_TRUSTED, name, ip);
-                    return;
+        if (settings.isProxyModeEnabled() && !settings.getTrustedProxies().isEmpty()) {
+            if (!settings.getTrustedProxies().contains(ip)) {
+                if (settings.isFailsafeDenyAll()) {
+                    plugin.handleDenied(runtime, DenyReason.PROXY_NOT_TRUSTED, name, ip);
+                    return DenyReason.PROXY_NOT_TRUSTED;
                 }
                 bypassWhitelist = true;
             }
         }
 
-        if (plugin.isRateLimitEnabled()) {
-            if (!plugin.getRateLimiter().tryAcquire(ip, plugin.getRateLimitWindowMillis(),
-                    plugin.getRateLimitMaxAttempts())) {
-                event.disallow(AsyncPlayerPreLoginEvent.Result.KICK_OTHER,
-                        plugin.prefixed(plugin.getRateLimitMessage()));
-                plugin.handleDenied(DenyReason.RATE_LIMIT, name, ip);
-                return;
+        if (plugin.getBanStore().matches(ip)) {
+            plugin.handleDenied(runtime, DenyReason.BANNED, name, ip);
+            return DenyReason.BANNED;
+        }
+
+        BlocklistStore blocklist = plugin.getBlocklistStore();
+        if (settings.isBlocklistEnabled() && settings.isBlocklistFirst() && blocklist.contains(ip)) {
+            plugin.handleDenied(runtime, DenyReason.BLOCKLISTED, name, ip);
+            return DenyReason.BLOCKLISTED;
+        }
+
+        if (countAttempt && settings.isRateLimitEnabled()) {
+            if (!runtime.getRateLimiter().tryAcquire(ip, settings.getRateLimitWindowMillis(),
+                    settings.getRateLimitMaxAttempts())) {
+                plugin.handleDenied(runtime, DenyReason.RATE_LIMIT, name, ip);
+                if (penaltyBox != null && penaltyBox.recordViolation(ip) > 0) {
+                    plugin.handleDenied(runtime, DenyReason.PENALIZED, name, ip);
+                }
+                return DenyReason.RATE_LIMIT;
             }
         }
 
-        if (bypassWhitelist) {
-            return;
+        SubnetRateLimiter subnetLimiter = runtime.getSubnetRateLimiter();
+        if (countAttempt && settings.isSubnetRateLimitEnabled() && subnetLimiter != null) {
+            if (!subnetLimiter.tryAcquire(ip, settings.getRateLimitWindowMillis())) {
+                plugin.handleDenied(runtime, DenyReason.SUBNET_RATE_LIMIT, name, ip);
+                return DenyReason.SUBNET_RATE_LIMIT;
+            }
         }
 
-        if (!store.isAvailable()) {
-            if (plugin.isFailsafeDenyAll()) {
-                event.disallow(AsyncPlayerPreLoginEvent.Result.KICK_OTHER,
-                        plugin.prefixed(plugin.getFailsafeMessage()));
-                plugin.handleDenied(DenyReason.FAILSAFE, name, ip);
+        // With ALLOW_FIRST a whitelisted address skips the blocklist, so it is only consulted after the whitelist.
+        boolean blockLate = settings.isBlocklistEnabled() && !settings.isBlocklistFirst();
+        if (!bypassWhitelist && settings.isWhitelistEnabled()) {
+            if (!store.isAvailable()) {
+                if (settings.isFailsafeDenyAll()) {
+                    plugin.handleDenied(runtime, DenyReason.FAILSAFE, name, ip);
+                    return DenyReason.FAILSAFE;
+                }
+            } else if (store.isAllowed(ip)) {
+                return null;
+            } else if (!blockLate || !blocklist.contains(ip)) {
+                plugin.handleDenied(runtime, DenyReason.NOT_WHITELISTED, name, ip);
+                return DenyReason.NOT_WHITELISTED;
             }
-            return;
         }
 
-        if (!store.isAllowed(ip)) {
-            event.disallow(AsyncPlayerPreLoginEvent.Result.KICK_WHITELIST,
-                    plugin.prefixed(plugin.msg("notAllowed")));
-            plugin.handleDenied(DenyReason.NOT_WHITELISTED, name, ip);
+        if (blockLate && blocklist.contains(ip)) {
+            plugin.handleDenied(runtime, DenyReason.BLOCKLISTED, name, ip);
+            return DenyReason.BLOCKLISTED;
         }
+        return null;
+    }
+
+    private static AsyncPlayerPreLoginEvent.Result result(DenyReason reason) {
+        return switch (reason) {
+            case NOT_WHITELISTED -> AsyncPlayerPreLoginEvent.Result.KICK_WHITELIST;
+            case BANNED, BLOCKLISTED -> AsyncPlayerPreLoginEvent.Result.KICK_BANNED;
+            default -> AsyncPlayerPreLoginEvent.Result.KICK_OTHER;
+        };
     }
 }
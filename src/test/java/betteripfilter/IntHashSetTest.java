@@ -0,0 +1,170 @@
+package betteripfilter;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IntHashSetTest {
+    // The default table has 16 slots and grows past 8 elements.
+    private static final int MASK = 15;
+
+    @Test
+    void zeroIsStoredOutsideTheTable() {
+        IntHashSet set = new IntHashSet();
+        assertFalse(set.contains(0));
+        assertTrue(set.add(0));
+        assertFalse(set.add(0));
+        assertTrue(set.contains(0));
+        assertEquals(1, set.size());
+        assertTrue(set.remove(0));
+        assertFalse(set.remove(0));
+        assertFalse(set.contains(0));
+        assertEquals(0, set.size());
+    }
+
+    @Test
+    void extremeValues() {
+        IntHashSet set = new IntHashSet();
+        assertTrue(set.add(Integer.MIN_VALUE));
+        assertTrue(set.add(Integer.MAX_VALUE));
+        assertTrue(set.add(-1));
+        assertTrue(set.contains(Integer.MIN_VALUE));
+        assertTrue(set.contains(Integer.MAX_VALUE));
+        assertTrue(set.contains(-1));
+        assertFalse(set.contains(1));
+    }
+
+    @Test
+    void deletingTheHeadOfAChainKeepsTheRestReachable() {
+        List<Integer> chain = collidingValues(5, 4);
+        IntHashSet set = new IntHashSet();
+        for (int value : chain) {
+            assertTrue(set.add(value));
+        }
+
+        assertTrue(set.remove(chain.get(0)));
+        assertFalse(set.contains(chain.get(0)));
+        for (int value : chain.subList(1, chain.size())) {
+            assertTrue(set.contains(value), "lost " + value);
+        }
+
+        assertTrue(set.remove(chain.get(2)));
+        assertTrue(set.contains(chain.get(1)));
+        assertFalse(set.contains(chain.get(2)));
+        assertTrue(set.contains(chain.get(3)));
+        assertEquals(2, set.size());
+    }
+
+    @Test
+    void deletingInAChainThatWrapsAroundTheTable() {
+        List<Integer> wrapping = collidingValues(MASK, 3);
+        List<Integer> nextHome = collidingValues(0, 2);
+        IntHashSet set = new IntHashSet();
+        // Slots 15, 0 and 1 hold the wrapped chain, which pushes the values homed at 0 to slots 2 and 3.
+        for (int value : wrapping) {
+            set.add(value);
+        }
+        for (int value : nextHome) {
+            set.add(value);
+        }
+
+        assertTrue(set.remove(wrapping.get(0)));
+        assertTrue(set.remove(wrapping.get(1)));
+        assertTrue(set.contains(wrapping.get(2)));
+        for (int value : nextHome) {
+            assertTrue(set.contains(value), "lost " + value);
+        }
+
+        assertTrue(set.remove(wrapping.get(2)));
+        for (int value : nextHome) {
+            assertTrue(set.contains(value), "lost " + value);
+        }
+        assertEquals(2, set.size());
+    }
+
+    @Test
+    void removingAMissingValueInAFullChainChangesNothing() {
+        List<Integer> chain = collidingValues(7, 4);
+        IntHashSet set = new IntHashSet();
+        for (int value : chain.subList(0, 3)) {
+            set.add(value);
+        }
+        assertFalse(set.remove(chain.get(3)));
+        assertEquals(3, set.size());
+        for (int value : chain.subList(0, 3)) {
+            assertTrue(set.contains(value));
+        }
+    }
+
+    @Test
+    void matchesAReferenceSetUnderRandomChurn() {
+        Random random = new Random(7);
+        IntHashSet set = new IntHashSet();
+        Set<Integer> reference = new HashSet<>();
+        for (int i = 0; i < 200_000; i++) {
+            // A small value range keeps chains long and makes removals frequent.
+            int value = random.nextInt(2048) - 1024;
+            if (random.nextInt(3) == 0) {
+                assertEquals(reference.remove(value), set.remove(value));
+            } else {
+                assertEquals(reference.add(value), set.add(value));
+            }
+        }
+        assertEquals(reference.size(), set.size());
+        for (int value = -1100; value < 1100; value++) {
+            assertEquals(reference.contains(value), set.contains(value), "value " + value);
+        }
+    }
+
+    @Test
+    void copyIsIndependent() {
+        IntHashSet set = new IntHashSet();
+        set.add(1);
+        set.add(2);
+        IntHashSet copy = set.copy();
+        copy.remove(1);
+        copy.add(3);
+        assertTrue(set.contains(1));
+        assertFalse(set.contains(3));
+        assertFalse(copy.contains(1));
+        assertTrue(copy.contains(3));
+    }
+
+    @Test
+    void serializationRestoresTheTable() {
+        IntHashSet set = new IntHashSet();
+        for (int i = -500; i <= 500; i++) {
+            set.add(i * 7919);
+        }
+        set.remove(7919);
+        ByteBuffer buffer = ByteBuffer.allocate(set.serializedSize());
+        set.writeTo(buffer);
+        buffer.flip();
+        IntHashSet read = IntHashSet.readFrom(buffer);
+        assertEquals(set.size(), read.size());
+        for (int i = -500; i <= 500; i++) {
+            assertEquals(i != 1, read.contains(i * 7919), "value " + i * 7919);
+        }
+    }
+
+    // Non-zero values whose home slot in the default 16-slot table is home.
+    private static List<Integer> collidingValues(int home, int count) {
+        List<Integer> values = new ArrayList<>();
+        for (int value = 1; values.size() < count; value++) {
+            int h = value * 0x9E3779B9;
+            if (((h ^ (h >>> 16)) & MASK) == home) {
+                values.add(value);
+            }
+        }
+        return values;
+    }
+}
@@ -0,0 +1,155 @@
+package betteripfilter;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IntervalIndexTest {
+
+    @Test
+    void emptyIndexContainsNothing() {
+        IntervalIndex index = IntervalIndex.builder().build();
+        assertTrue(index.isEmpty());
+        assertFalse(index.contains(0));
+        assertFalse(index.contains(ip("255.255.255.255")));
+    }
+
+    @Test
+    void lowestAndHighestAddresses() {
+        IntervalIndex index = IntervalIndex.builder()
+                .add(ip("0.0.0.0"), ip("0.0.0.0"))
+                .add(ip("255.255.255.255"), ip("255.255.255.255"))
+                .build();
+        assertEquals(2, index.size());
+        assertTrue(index.contains(ip("0.0.0.0")));
+        assertTrue(index.contains(ip("255.255.255.255")));
+        assertFalse(index.contains(ip("0.0.0.1")));
+        assertFalse(index.contains(ip("255.255.255.254")));
+        assertFalse(index.contains(ip("127.255.255.255")));
+        assertFalse(index.contains(ip("128.0.0.0")));
+    }
+
+    @Test
+    void fullRange() {
+        IntervalIndex index = IntervalIndex.builder().add(ip("0.0.0.0"), ip("255.255.255.255")).build();
+        assertEquals(1, index.size());
+        assertTrue(index.contains(ip("0.0.0.0")));
+        assertTrue(index.contains(ip("127.255.255.255")));
+        assertTrue(index.contains(ip("128.0.0.0")));
+        assertTrue(index.contains(ip("255.255.255.255")));
+    }
+
+    @Test
+    void intervalAcrossTheSignBit() {
+        IntervalIndex index = IntervalIndex.builder().add(ip("127.255.255.0"), ip("128.0.0.255")).build();
+        assertTrue(index.contains(ip("127.255.255.0")));
+        assertTrue(index.contains(ip("127.255.255.255")));
+        assertTrue(index.contains(ip("128.0.0.0")));
+        assertTrue(index.contains(ip("128.0.0.255")));
+        assertFalse(index.contains(ip("127.255.254.255")));
+        assertFalse(index.contains(ip("128.0.1.0")));
+        assertFalse(index.contains(ip("0.0.0.0")));
+        assertFalse(index.contains(ip("255.255.255.255")));
+    }
+
+    @Test
+    void intervalsOnEitherSideOfTheSignBitStaySeparate() {
+        IntervalIndex index = IntervalIndex.builder()
+                .add(ip("128.0.0.0"), ip("128.0.0.0"))
+                .add(ip("127.255.255.254"), ip("127.255.255.254"))
+                .build();
+        assertEquals(2, index.size());
+        assertTrue(index.contains(ip("128.0.0.0")));
+        assertTrue(index.contains(ip("127.255.255.254")));
+        assertFalse(index.contains(ip("127.255.255.255")));
+    }
+
+    @Test
+    void adjacentIntervalsAtTheSignBitMerge() {
+        IntervalIndex index = IntervalIndex.builder()
+                .add(ip("128.0.0.0"), ip("128.0.0.10"))
+                .add(ip("127.255.255.0"), ip("127.255.255.255"))
+                .build();
+        assertEquals(1, index.size());
+        assertTrue(index.contains(ip("127.255.255.255")));
+        assertTrue(index.contains(ip("128.0.0.0")));
+    }
+
+    @Test
+    void overlappingIntervalsMerge() {
+        IntervalIndex index = IntervalIndex.builder()
+                .add(ip("10.0.0.50"), ip("10.0.0.200"))
+                .add(ip("10.0.0.0"), ip("10.0.0.100"))
+                .add(ip("10.0.0.60"), ip("10.0.0.70"))
+                .build();
+        assertEquals(1, index.size());
+        assertTrue(index.contains(ip("10.0.0.0")));
+        assertTrue(index.contains(ip("10.0.0.200")));
+        assertFalse(index.contains(ip("10.0.0.201")));
+        assertFalse(index.contains(ip("9.255.255.255")));
+    }
+
+    @Test
+    void adjacentIntervalsMergeButGapsDoNot() {
+        IntervalIndex adjacent = IntervalIndex.builder()
+                .add(ip("10.0.0.0"), ip("10.0.0.9"))
+                .add(ip("10.0.0.10"), ip("10.0.0.19"))
+                .build();
+        assertEquals(1, adjacent.size());
+
+        IntervalIndex gap = IntervalIndex.builder()
+                .add(ip("10.0.0.0"), ip("10.0.0.9"))
+                .add(ip("10.0.0.11"), ip("10.0.0.19"))
+                .build();
+        assertEquals(2, gap.size());
+        assertTrue(gap.contains(ip("10.0.0.9")));
+        assertFalse(gap.contains(ip("10.0.0.10")));
+        assertTrue(gap.contains(ip("10.0.0.11")));
+    }
+
+    @Test
+    void intervalEndingAtTheTopMergesWithoutOverflow() {
+        IntervalIndex index = IntervalIndex.builder()
+                .add(ip("255.255.255.0"), ip("255.255.255.255"))
+                .add(ip("255.255.255.255"), ip("255.255.255.255"))
+                .add(ip("255.255.254.0"), ip("255.255.254.255"))
+                .build();
+        assertEquals(1, index.size());
+        assertTrue(index.contains(ip("255.255.254.0")));
+        assertTrue(index.contains(ip("255.255.255.255")));
+    }
+
+    @Test
+    void addAllAndSerializationKeepTheIntervals() {
+        IntervalIndex original = IntervalIndex.builder()
+                .add(ip("0.0.0.0"), ip("0.0.0.255"))
+                .add(ip("127.255.255.255"), ip("128.0.0.0"))
+                .add(ip("255.255.255.255"), ip("255.255.255.255"))
+                .build();
+        IntervalIndex copy = IntervalIndex.builder().addAll(original).build();
+
+        ByteBuffer buffer = ByteBuffer.allocate(original.serializedSize());
+        original.writeTo(buffer);
+        buffer.flip();
+        IntervalIndex read = IntervalIndex.readFrom(buffer);
+
+        for (IntervalIndex index : new IntervalIndex[] {copy, read}) {
+            assertEquals(3, index.size());
+            assertTrue(index.contains(ip("0.0.0.0")));
+            assertTrue(index.contains(ip("0.0.0.255")));
+            assertFalse(index.contains(ip("0.0.1.0")));
+            assertTrue(index.contains(ip("127.255.255.255")));
+            assertTrue(index.contains(ip("128.0.0.0")));
+            assertFalse(index.contains(ip("128.0.0.1")));
+            assertTrue(index.contains(ip("255.255.255.255")));
+        }
+    }
+
+    private static int ip(String value) {
+        return (int) IpAddresses.parseIpv4(value);
+    }
+}
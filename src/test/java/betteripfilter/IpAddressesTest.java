@@ -0,0 +1,40 @@
+package betteripfilter;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IpAddressesTest {
+
+    @Test
+    void parsesIpv6InEitherCase() {
+        long[] lower = new long[2];
+        long[] upper = new long[2];
+        assertTrue(IpAddresses.parseIpv6("2001:db8::abcd", lower));
+        assertTrue(IpAddresses.parseIpv6("2001:DB8::ABCD", upper));
+        assertArrayEquals(new long[] {0x20010DB800000000L, 0xABCDL}, lower);
+        assertArrayEquals(lower, upper);
+    }
+
+    @Test
+    void rejectsNonAsciiDigitsInIpv6() {
+        long[] out = new long[2];
+        // Full-width "1", Arabic-Indic "1" and full-width "a".
+        assertFalse(IpAddresses.parseIpv6("2001:db8::\uFF11", out));
+        assertFalse(IpAddresses.parseIpv6("2001:db8::\u0661", out));
+        assertFalse(IpAddresses.parseIpv6("2001:db8::\uFF41", out));
+        assertNull(AddressEntry.parse("2001:db8::\uFF11"));
+    }
+
+    @Test
+    void rejectsNonAsciiDigitsInPrefixes() {
+        assertNull(AddressEntry.parse("10.0.0.0/\uFF18"));
+        assertNull(AddressEntry.parse("2001:db8::/\u0664\u0668"));
+        assertEquals("10.0.0.0/8", AddressEntry.parse("10.0.0.0/8").normalized());
+        assertEquals("2001:db8::/48", AddressEntry.parse("2001:db8::/48").normalized());
+    }
+}
@@ -0,0 +1,57 @@
+package betteripfilter;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IpStoreTest {
+    private static final long HOUR = 3_600_000L;
+
+    @TempDir
+    File dataFolder;
+
+    @Test
+    void timedEntriesSurviveTheCompiledImage() {
+        IpStore store = open();
+        long expiresAt = System.currentTimeMillis() + HOUR;
+        assertTrue(store.add("10.0.0.0/8"));
+        assertTrue(store.add("192.168.1.5", expiresAt));
+        store.close();
+        assertTrue(new File(dataFolder, "ips.bin").isFile());
+
+        IpStore reopened = open();
+        assertTrue(reopened.isAllowed("10.1.2.3"));
+        assertTrue(reopened.isAllowed("192.168.1.5"));
+        assertEquals(1, reopened.getTimedCount());
+        assertEquals(expiresAt, reopened.getExpiry("192.168.1.5"));
+        assertEquals(2, reopened.size());
+        reopened.close();
+    }
+
+    @Test
+    void entriesThatRanOutWhileClosedAreDropped() throws InterruptedException {
+        IpStore store = open();
+        assertTrue(store.add("10.0.0.0/8"));
+        assertTrue(store.add("192.168.1.5", System.currentTimeMillis() + 50));
+        store.close();
+        Thread.sleep(100);
+
+        IpStore reopened = open();
+        assertTrue(reopened.isAllowed("10.1.2.3"));
+        assertFalse(reopened.isAllowed("192.168.1.5"));
+        assertEquals(0, reopened.getTimedCount());
+        reopened.close();
+    }
+
+    private IpStore open() {
+        IpStore store = new IpStore(dataFolder, Logger.getLogger("test"));
+        store.load();
+        return store;
+    }
+}
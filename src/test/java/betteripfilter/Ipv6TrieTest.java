@@ -0,0 +1,208 @@
+package betteripfilter;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class Ipv6TrieTest {
+
+    @Test
+    void emptyTrieContainsNothing() {
+        Ipv6Trie trie = Ipv6Trie.builder().build();
+        assertEquals(0, trie.prefixCount());
+        assertFalse(contains(trie, "::"));
+    }
+
+    @Test
+    void singlePrefix() {
+        Ipv6Trie trie = builder().add("2001:db8::", 32).build();
+        assertTrue(contains(trie, "2001:db8::"));
+        assertTrue(contains(trie, "2001:db8:ffff:ffff:ffff:ffff:ffff:ffff"));
+        assertFalse(contains(trie, "2001:db9::"));
+        assertFalse(contains(trie, "2001:db7:ffff:ffff:ffff:ffff:ffff:ffff"));
+    }
+
+    @Test
+    void zeroAndFullLengthPrefixes() {
+        Ipv6Trie all = builder().add("::", 0).build();
+        assertTrue(contains(all, "::"));
+        assertTrue(contains(all, "ffff:ffff:ffff:ffff:ffff:ffff:ffff:ffff"));
+
+        Ipv6Trie exact = builder().add("2001:db8::1", 128).build();
+        assertTrue(contains(exact, "2001:db8::1"));
+        assertFalse(contains(exact, "2001:db8::"));
+        assertFalse(contains(exact, "2001:db8::2"));
+    }
+
+    @Test
+    void prefixesAroundTheSixtyFourBitBoundary() {
+        Ipv6Trie trie = builder()
+                .add("2001:db8:0:1::", 64)
+                .add("2001:db8:0:2:8000::", 65)
+                .add("2001:db8:0:5::", 63)
+                .build();
+        assertTrue(contains(trie, "2001:db8:0:1:ffff:ffff:ffff:ffff"));
+        assertFalse(contains(trie, "2001:db8:0:0:ffff:ffff:ffff:ffff"));
+        assertTrue(contains(trie, "2001:db8:0:2:8000::"));
+        assertTrue(contains(trie, "2001:db8:0:2:ffff:ffff:ffff:ffff"));
+        assertFalse(contains(trie, "2001:db8:0:2:7fff:ffff:ffff:ffff"));
+        // A /63 at ...:5 is aligned down to ...:4, so it covers both ...:4 and ...:5.
+        assertTrue(contains(trie, "2001:db8:0:4::"));
+        assertTrue(contains(trie, "2001:db8:0:5:ffff:ffff:ffff:ffff"));
+        assertFalse(contains(trie, "2001:db8:0:3:ffff:ffff:ffff:ffff"));
+        assertFalse(contains(trie, "2001:db8:0:6::"));
+    }
+
+    @Test
+    void coveredPrefixesArePrunedInEitherOrder() {
+        Ipv6Trie longerFirst = builder()
+                .add("2001:db8:1:2::", 64)
+                .add("2001:db8:1::", 48)
+                .add("2001:db8::", 32)
+                .build();
+        Ipv6Trie shorterFirst = builder()
+                .add("2001:db8::", 32)
+                .add("2001:db8:1::", 48)
+                .add("2001:db8:1:2::", 64)
+                .build();
+        for (Ipv6Trie trie : new Ipv6Trie[] {longerFirst, shorterFirst}) {
+            assertEquals(1, trie.prefixCount());
+            assertEquals(1, trie.nodeCount());
+            assertTrue(contains(trie, "2001:db8:ffff::"));
+            assertFalse(contains(trie, "2001:db9::"));
+        }
+    }
+
+    @Test
+    void duplicatePrefixesCountOnce() {
+        Ipv6Trie trie = builder().add("2001:db8::", 48).add("2001:db8::", 48).build();
+        assertEquals(1, trie.prefixCount());
+    }
+
+    @Test
+    void siblingPrefixesBothMatch() {
+        Ipv6Trie trie = builder()
+                .add("2001:db8::", 33)
+                .add("2001:db8:8000::", 33)
+                .add("fe80::", 10)
+                .build();
+        assertEquals(3, trie.prefixCount());
+        assertEquals(5, trie.nodeCount());
+        assertTrue(contains(trie, "2001:db8::1"));
+        assertTrue(contains(trie, "2001:db8:ffff::1"));
+        assertTrue(contains(trie, "febf::1"));
+        assertFalse(contains(trie, "fec0::"));
+        assertFalse(contains(trie, "2001:db9::"));
+        assertFalse(contains(trie, "::1"));
+    }
+
+    @Test
+    void bitsBeyondThePrefixLengthAreIgnored() {
+        Ipv6Trie trie = builder().add("2001:db8:ffff::1", 32).build();
+        assertTrue(contains(trie, "2001:db8::"));
+    }
+
+    @Test
+    void rangeBecomesMinimalPrefixes() {
+        Ipv6Trie trie = range("2001:db8::1", "2001:db8::ffff");
+        assertTrue(contains(trie, "2001:db8::1"));
+        assertTrue(contains(trie, "2001:db8::8000"));
+        assertTrue(contains(trie, "2001:db8::ffff"));
+        assertFalse(contains(trie, "2001:db8::"));
+        assertFalse(contains(trie, "2001:db8::1:0"));
+        // 1, 2-3, 4-7, ... 8000-ffff: one prefix per bit.
+        assertEquals(16, trie.prefixCount());
+    }
+
+    @Test
+    void rangeAcrossTheSixtyFourBitBoundary() {
+        Ipv6Trie trie = range("2001:db8:0:0:ffff:ffff:ffff:fff0", "2001:db8:0:1::f");
+        assertTrue(contains(trie, "2001:db8:0:0:ffff:ffff:ffff:fff0"));
+        assertTrue(contains(trie, "2001:db8:0:0:ffff:ffff:ffff:ffff"));
+        assertTrue(contains(trie, "2001:db8:0:1::"));
+        assertTrue(contains(trie, "2001:db8:0:1::f"));
+        assertFalse(contains(trie, "2001:db8:0:0:ffff:ffff:ffff:ffef"));
+        assertFalse(contains(trie, "2001:db8:0:1::10"));
+        assertEquals(2, trie.prefixCount());
+    }
+
+    @Test
+    void fullAndEdgeRanges() {
+        Ipv6Trie all = range("::", "ffff:ffff:ffff:ffff:ffff:ffff:ffff:ffff");
+        assertEquals(1, all.prefixCount());
+        assertTrue(contains(all, "::"));
+        assertTrue(contains(all, "ffff:ffff:ffff:ffff:ffff:ffff:ffff:ffff"));
+
+        Ipv6Trie top = range("ffff:ffff:ffff:ffff:ffff:ffff:ffff:fffe", "ffff:ffff:ffff:ffff:ffff:ffff:ffff:ffff");
+        assertEquals(1, top.prefixCount());
+        assertTrue(contains(top, "ffff:ffff:ffff:ffff:ffff:ffff:ffff:ffff"));
+        assertFalse(contains(top, "ffff:ffff:ffff:ffff:ffff:ffff:ffff:fffd"));
+
+        Ipv6Trie single = range("::", "::");
+        assertTrue(contains(single, "::"));
+        assertFalse(contains(single, "::1"));
+    }
+
+    @Test
+    void addAllAndSerializationKeepThePrefixes() {
+        Ipv6Trie original = builder()
+                .add("2001:db8::", 32)
+                .add("2001:db8:1::", 48)
+                .add("fe80::", 10)
+                .add("::1", 128)
+                .build();
+        Ipv6Trie copy = Ipv6Trie.builder().addAll(original).build();
+
+        ByteBuffer buffer = ByteBuffer.allocate(original.serializedSize());
+        original.writeTo(buffer);
+        buffer.flip();
+        Ipv6Trie read = Ipv6Trie.readFrom(buffer);
+
+        for (Ipv6Trie trie : new Ipv6Trie[] {copy, read}) {
+            assertEquals(3, trie.prefixCount());
+            assertTrue(contains(trie, "2001:db8:abcd::1"));
+            assertTrue(contains(trie, "fe80::1"));
+            assertTrue(contains(trie, "::1"));
+            assertFalse(contains(trie, "::2"));
+        }
+    }
+
+    private static boolean contains(Ipv6Trie trie, String address) {
+        long[] parsed = parse(address);
+        return trie.contains(parsed[0], parsed[1]);
+    }
+
+    private static Ipv6Trie range(String start, String end) {
+        long[] from = parse(start);
+        long[] to = parse(end);
+        return Ipv6Trie.builder().addRange(from[0], from[1], to[0], to[1]).build();
+    }
+
+    private static long[] parse(String address) {
+        long[] parsed = new long[2];
+        assertTrue(IpAddresses.parseIpv6(address, parsed), address);
+        return parsed;
+    }
+
+    private static TrieBuilder builder() {
+        return new TrieBuilder();
+    }
+
+    private static final class TrieBuilder {
+        private final Ipv6Trie.Builder builder = Ipv6Trie.builder();
+
+        TrieBuilder add(String address, int length) {
+            long[] parsed = parse(address);
+            builder.add(parsed[0], parsed[1], length);
+            return this;
+        }
+
+        Ipv6Trie build() {
+            return builder.build();
+        }
+    }
+}
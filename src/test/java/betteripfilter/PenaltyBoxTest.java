@@ -0,0 +1,86 @@
+package betteripfilter;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PenaltyBoxTest {
+    private static final long MINUTE = 60_000L;
+
+    @Test
+    void boxesAfterTheThreshold() {
+        PenaltyBox box = new PenaltyBox(1024, 3, MINUTE, MINUTE, 10 * MINUTE);
+        ClientAddress address = ClientAddress.parse("203.0.113.7");
+        assertEquals(0L, box.recordViolation(address));
+        assertEquals(0L, box.recordViolation(address));
+        assertFalse(box.isPenalized(address));
+        assertEquals(MINUTE, box.recordViolation(address));
+        assertTrue(box.isPenalized(address));
+        assertFalse(box.isPenalized(ClientAddress.parse("203.0.113.8")));
+        // Violations while boxed do not extend or restart the ban.
+        assertEquals(0L, box.recordViolation(address));
+        assertEquals(1, box.activeCount());
+        assertEquals(1L, box.getBanCount());
+    }
+
+    @Test
+    void reloadKeepsRunningBansAndPendingViolations() {
+        PenaltyBox box = new PenaltyBox(1024, 2, MINUTE, MINUTE, 10 * MINUTE);
+        ClientAddress boxed = ClientAddress.parse("2001:db8::1");
+        ClientAddress pending = ClientAddress.parse("198.51.100.1");
+        box.recordViolation(boxed);
+        box.recordViolation(boxed);
+        box.recordViolation(pending);
+
+        PenaltyBox reloaded = new PenaltyBox(1024, 2, MINUTE, 2 * MINUTE, 10 * MINUTE);
+        reloaded.takeOver(box);
+        assertTrue(reloaded.isPenalized(boxed));
+        assertFalse(reloaded.isPenalized(pending));
+        // The violation from before the reload still counts; the new settings decide the ban length.
+        assertEquals(2 * MINUTE, reloaded.recordViolation(pending));
+        assertTrue(reloaded.isPenalized(pending));
+        assertEquals(2, reloaded.activeCount());
+    }
+
+    @Test
+    void smallerTableKeepsAsManyBansAsFit() {
+        PenaltyBox box = new PenaltyBox(4096, 1, MINUTE, MINUTE, 64 * MINUTE);
+        for (int i = 0; i < 1000; i++) {
+            box.recordViolation(ClientAddress.ipv4(i + 1));
+        }
+        assertEquals(1000, box.activeCount());
+
+        PenaltyBox smaller = new PenaltyBox(RateLimitTable.WAYS, 1, MINUTE, MINUTE, 64 * MINUTE);
+        smaller.takeOver(box);
+        assertEquals(RateLimitTable.WAYS, smaller.activeCount());
+    }
+
+    @Test
+    void violationsRecordedOnEitherSideOfTheSwapAreMerged() {
+        PenaltyBox box = new PenaltyBox(1024, 3, MINUTE, MINUTE, 10 * MINUTE);
+        ClientAddress address = ClientAddress.parse("203.0.113.9");
+        box.recordViolation(address);
+
+        PenaltyBox reloaded = new PenaltyBox(1024, 3, MINUTE, MINUTE, 10 * MINUTE);
+        // Published first, so it may already see the address before the old state is carried over.
+        reloaded.recordViolation(address);
+        reloaded.takeOver(box);
+        assertEquals(MINUTE, reloaded.recordViolation(address));
+        assertTrue(reloaded.isPenalized(address));
+    }
+
+    @Test
+    void oldBoxForwardsViolationsOnceTakenOver() {
+        PenaltyBox box = new PenaltyBox(1024, 2, MINUTE, MINUTE, 10 * MINUTE);
+        PenaltyBox reloaded = new PenaltyBox(1024, 2, MINUTE, MINUTE, 10 * MINUTE);
+        reloaded.takeOver(box);
+        ClientAddress address = ClientAddress.parse("198.51.100.20");
+        // A login that still holds the old box keeps charging the new one.
+        box.recordViolation(address);
+        assertEquals(MINUTE, box.recordViolation(address));
+        assertTrue(reloaded.isPenalized(address));
+        assertEquals(1L, reloaded.getBanCount());
+    }
+}
@@ -0,0 +1,139 @@
+package betteripfilter;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RateLimitModeTest {
+    private static final long WINDOW = 1000L;
+
+    @Test
+    void fixedWindowDeniesPastTheLimitAndRollsOver() {
+        Key key = new Key(RateLimitMode.FIXED_WINDOW, 3);
+        assertTrue(key.attempt(100));
+        assertTrue(key.attempt(200));
+        assertTrue(key.attempt(300));
+        assertFalse(key.attempt(400));
+        // The window started at 100, so it is still open one millisecond before 1100.
+        assertFalse(key.attempt(1099));
+        assertTrue(key.attempt(1100));
+        assertTrue(key.attempt(1101));
+        assertTrue(key.attempt(1102));
+        assertFalse(key.attempt(1103));
+        assertEquals(1100, RateLimitMode.FIXED_WINDOW.lastActivity(key.state, WINDOW));
+    }
+
+    @Test
+    void fixedWindowCountsDeniedAttempts() {
+        Key key = new Key(RateLimitMode.FIXED_WINDOW, 1);
+        assertTrue(key.attempt(0));
+        for (int i = 1; i < 100; i++) {
+            assertFalse(key.attempt(i));
+        }
+        // 100 attempts recorded in the low bits, start time untouched in the high bits.
+        assertEquals(100, key.state & ((1L << 24) - 1));
+        assertEquals(0, key.state >>> 24);
+        assertTrue(key.attempt(WINDOW));
+    }
+
+    @Test
+    void fixedWindowKeepsLargeTimestamps() {
+        long now = (1L << 39) - WINDOW * 2;
+        Key key = new Key(RateLimitMode.FIXED_WINDOW, 2);
+        assertTrue(key.attempt(now));
+        assertTrue(key.attempt(now + 1));
+        assertFalse(key.attempt(now + 2));
+        assertEquals(now, RateLimitMode.FIXED_WINDOW.lastActivity(key.state, WINDOW));
+        assertTrue(key.attempt(now + WINDOW));
+    }
+
+    @Test
+    void slidingWindowWeighsThePreviousWindow() {
+        Key key = new Key(RateLimitMode.SLIDING_WINDOW, 2);
+        assertTrue(key.attempt(100));
+        assertTrue(key.attempt(200));
+        assertFalse(key.attempt(300));
+        // At the start of the next window the previous two attempts still weigh fully.
+        assertFalse(key.attempt(1000));
+        // Halfway through, they weigh one attempt, which leaves room for exactly one more.
+        assertTrue(key.attempt(1500));
+        assertFalse(key.attempt(1501));
+        // Two windows later, nothing from the window with two attempts is left.
+        assertTrue(key.attempt(3000));
+        assertTrue(key.attempt(3001));
+        assertFalse(key.attempt(3002));
+    }
+
+    @Test
+    void slidingWindowDoesNotCountDeniedAttempts() {
+        Key key = new Key(RateLimitMode.SLIDING_WINDOW, 1);
+        assertTrue(key.attempt(0));
+        for (int i = 1; i < 50; i++) {
+            assertFalse(key.attempt(i));
+        }
+        assertEquals(1, key.state & 0xFFFFL);
+        // Only the single accepted attempt carries over into the next window, and no further.
+        assertFalse(key.attempt(1000));
+        assertTrue(key.attempt(2000));
+        assertEquals(2000, RateLimitMode.SLIDING_WINDOW.lastActivity(key.state, WINDOW));
+    }
+
+    @Test
+    void tokenBucketRefillsEvenly() {
+        Key key = new Key(RateLimitMode.TOKEN_BUCKET, 2);
+        assertTrue(key.attempt(0));
+        assertTrue(key.attempt(0));
+        assertFalse(key.attempt(0));
+        // Two tokens per 1000 ms: one token back after 500 ms, not before.
+        assertFalse(key.attempt(250));
+        assertTrue(key.attempt(500));
+        assertFalse(key.attempt(500));
+        // A full window refills the bucket to capacity, never beyond.
+        assertTrue(key.attempt(5000));
+        assertTrue(key.attempt(5000));
+        assertFalse(key.attempt(5000));
+    }
+
+    @Test
+    void tokenBucketAccruesAcrossFrequentCalls() {
+        Key key = new Key(RateLimitMode.TOKEN_BUCKET, 1000);
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(key.attempt(0));
+        }
+        assertFalse(key.attempt(0));
+        // One token per millisecond; polling every millisecond must still refill.
+        for (int now = 1; now <= 10; now++) {
+            assertTrue(key.attempt(now), "at " + now);
+            assertFalse(key.attempt(now), "at " + now);
+        }
+    }
+
+    @Test
+    void limitIsClampedToThePackedCounterRange() {
+        Key key = new Key(RateLimitMode.TOKEN_BUCKET, Integer.MAX_VALUE);
+        for (int i = 0; i < RateLimitMode.MAX_ATTEMPTS_LIMIT; i++) {
+            assertTrue(key.attempt(0));
+        }
+        assertFalse(key.attempt(0));
+    }
+
+    private static final class Key {
+        private final RateLimitMode mode;
+        private final int maxAttempts;
+        private long state = -1L;
+
+        private Key(RateLimitMode mode, int maxAttempts) {
+            this.mode = mode;
+            this.maxAttempts = maxAttempts;
+        }
+
+        boolean attempt(long now) {
+            long result = state < 0 ? mode.first(now, WINDOW, maxAttempts)
+                    : mode.next(state, now, WINDOW, maxAttempts);
+            state = RateLimitMode.state(result);
+            return RateLimitMode.allowed(result);
+        }
+    }
+}
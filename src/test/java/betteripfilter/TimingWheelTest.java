@@ -0,0 +1,131 @@
+package betteripfilter;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TimingWheelTest {
+    // Ticks covered by the four 64-slot levels before entries are parked.
+    private static final long SPAN_TICKS = 1L << 24;
+
+    @Test
+    void firesOnTheFirstTickAtOrAfterTheDeadline() {
+        TimingWheel wheel = new TimingWheel(10L, 0L);
+        wheel.schedule("a", 25L);
+        List<String> expired = new ArrayList<>();
+        wheel.advance(29L, expired);
+        assertTrue(expired.isEmpty());
+        wheel.advance(30L, expired);
+        assertEquals(List.of("a"), expired);
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void pastDeadlinesFireOnTheNextTick() {
+        TimingWheel wheel = new TimingWheel(1000L, 5_000L);
+        wheel.schedule("late", 1_000L);
+        List<String> expired = new ArrayList<>();
+        wheel.advance(5_999L, expired);
+        assertTrue(expired.isEmpty());
+        wheel.advance(6_000L, expired);
+        assertEquals(List.of("late"), expired);
+    }
+
+    @Test
+    void cascadesAcrossEveryLevelBoundary() {
+        TimingWheel wheel = new TimingWheel(1L, 0L);
+        long[] deadlines = {1, 63, 64, 65, 127, 128, 4095, 4096, 4097, 262_143, 262_144, 262_145,
+                SPAN_TICKS - 1, SPAN_TICKS};
+        for (long deadline : deadlines) {
+            wheel.schedule(Long.toString(deadline), deadline);
+        }
+        assertEquals(deadlines.length, wheel.size());
+        assertFiresExactly(wheel, deadlines, 0L);
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void entryPastTheTopLevelIsParkedAndStillFiresOnTime() {
+        TimingWheel wheel = new TimingWheel(1L, 0L);
+        long[] deadlines = {SPAN_TICKS + 1, SPAN_TICKS + 5_000, 3 * SPAN_TICKS + 17};
+        for (long deadline : deadlines) {
+            wheel.schedule(Long.toString(deadline), deadline);
+        }
+        assertFiresExactly(wheel, deadlines, 0L);
+    }
+
+    @Test
+    void startingOffAlignedTicksStillCascadesCorrectly() {
+        long start = 1_234_567L;
+        TimingWheel wheel = new TimingWheel(1L, start);
+        long[] deadlines = {start + 1, start + 64, start + 4_100, start + 300_000, start + SPAN_TICKS + 3};
+        for (long deadline : deadlines) {
+            wheel.schedule(Long.toString(deadline), deadline);
+        }
+        assertFiresExactly(wheel, deadlines, start);
+    }
+
+    @Test
+    void randomDeadlinesNeverFireEarly() {
+        Random random = new Random(11);
+        TimingWheel wheel = new TimingWheel(50L, 0L);
+        Map<String, Long> deadlines = new HashMap<>();
+        for (int i = 0; i < 20_000; i++) {
+            long deadline = 1 + (long) (random.nextDouble() * random.nextDouble() * 50L * 2_000_000L);
+            deadlines.put("k" + i, deadline);
+            wheel.schedule("k" + i, deadline);
+        }
+        List<String> expired = new ArrayList<>();
+        long now = 0;
+        int fired = 0;
+        while (fired < deadlines.size()) {
+            now += 50L * (1 + random.nextInt(500));
+            expired.clear();
+            wheel.advance(now, expired);
+            for (String key : expired) {
+                assertTrue(deadlines.get(key) <= now, key + " fired early");
+            }
+            fired += expired.size();
+        }
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void sizeCountsEveryScheduledKey() {
+        TimingWheel wheel = new TimingWheel(1L, 0L);
+        wheel.schedule("a", 10L);
+        wheel.schedule("a", 20L);
+        assertEquals(2, wheel.size());
+        List<String> expired = new ArrayList<>();
+        wheel.advance(10L, expired);
+        assertEquals(1, wheel.size());
+        wheel.advance(20L, expired);
+        assertEquals(List.of("a", "a"), expired);
+    }
+
+    // Advances tick by tick and checks that each deadline fires exactly on its tick.
+    private static void assertFiresExactly(TimingWheel wheel, long[] deadlines, long start) {
+        Map<String, Long> due = new HashMap<>();
+        long last = 0;
+        for (long deadline : deadlines) {
+            due.put(Long.toString(deadline), deadline);
+            last = Math.max(last, deadline);
+        }
+        List<String> expired = new ArrayList<>();
+        for (long tick = start + 1; tick <= last; tick++) {
+            expired.clear();
+            wheel.advance(tick, expired);
+            for (String key : expired) {
+                assertEquals(Long.valueOf(tick), due.remove(key), "deadline " + key);
+            }
+        }
+        assertTrue(due.isEmpty(), "never fired: " + due.keySet());
+    }
+}
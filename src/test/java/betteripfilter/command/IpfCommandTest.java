@@ -0,0 +1,98 @@
+package betteripfilter.command;
+
+import betteripfilter.IpStore;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IpfCommandTest {
+    private static final long HOUR = 3_600_000L;
+
+    @TempDir
+    File dataFolder;
+
+    @Test
+    void parsesSingleUnits() {
+        assertEquals(90_000L, IpfCommand.parseDuration("90s"));
+        assertEquals(1_800_000L, IpfCommand.parseDuration("30m"));
+        assertEquals(7_200_000L, IpfCommand.parseDuration("2h"));
+        assertEquals(604_800_000L, IpfCommand.parseDuration("7d"));
+        assertEquals(1_209_600_000L, IpfCommand.parseDuration("2w"));
+    }
+
+    @Test
+    void parsesCombinedAndUpperCaseUnits() {
+        assertEquals(129_600_000L, IpfCommand.parseDuration("1d12h"));
+        assertEquals(5_430_000L, IpfCommand.parseDuration("1h30m30s"));
+        assertEquals(7_200_000L, IpfCommand.parseDuration("2H"));
+        assertEquals(3_600_000L, IpfCommand.parseDuration("30m30m"));
+    }
+
+    @Test
+    void rejectsMalformedDurations() {
+        assertEquals(-1L, IpfCommand.parseDuration(""));
+        assertEquals(-1L, IpfCommand.parseDuration("10"));
+        assertEquals(-1L, IpfCommand.parseDuration("h"));
+        assertEquals(-1L, IpfCommand.parseDuration("10x"));
+        assertEquals(-1L, IpfCommand.parseDuration("-5m"));
+        assertEquals(-1L, IpfCommand.parseDuration("1h30"));
+        assertEquals(-1L, IpfCommand.parseDuration("1 h"));
+        assertEquals(-1L, IpfCommand.parseDuration("0s"));
+    }
+
+    @Test
+    void rejectsNumbersLargeEnoughToOverflow() {
+        assertEquals(1_000_000L * 604_800_000L, IpfCommand.parseDuration("1000000w"));
+        assertEquals(-1L, IpfCommand.parseDuration("1000001s"));
+        assertEquals(-1L, IpfCommand.parseDuration("99999999999999999999d"));
+    }
+
+    @Test
+    void formatsDurations() {
+        assertEquals("0s", IpfCommand.formatDuration(999L));
+        assertEquals("59s", IpfCommand.formatDuration(59_999L));
+        assertEquals("1m", IpfCommand.formatDuration(60_000L));
+        assertEquals("1h30m", IpfCommand.formatDuration(5_430_000L));
+        assertEquals("1d12h", IpfCommand.formatDuration(129_600_000L));
+        assertEquals("2d", IpfCommand.formatDuration(172_800_000L + 1_800_000L));
+    }
+
+    @Test
+    void permanentAddTurnsATimedEntryPermanent() {
+        IpStore store = new IpStore(dataFolder, Logger.getLogger("test"), "bans");
+        try {
+            long expiresAt = System.currentTimeMillis() + HOUR;
+            assertTrue(store.add("203.0.113.5", expiresAt));
+            assertFalse(IpfCommand.isPermanent(store, "203.0.113.5"));
+            assertTrue(store.add("203.0.113.5"));
+            assertEquals(0L, store.getExpiry("203.0.113.5"));
+            assertEquals(0, store.getTimedCount());
+            // Only now is a further add rejected as already present.
+            assertTrue(IpfCommand.isPermanent(store, "203.0.113.5"));
+            assertFalse(store.add("203.0.113.5", expiresAt));
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    void timedAddResetsATimedEntry() {
+        IpStore store = new IpStore(dataFolder, Logger.getLogger("test"), "bans");
+        try {
+            long now = System.currentTimeMillis();
+            assertTrue(store.add("2001:db8::5", now + HOUR));
+            assertFalse(IpfCommand.isPermanent(store, "2001:db8::5"));
+            assertTrue(store.add("2001:db8::5", now + 2 * HOUR));
+            assertEquals(now + 2 * HOUR, store.getExpiry("2001:db8::5"));
+            assertEquals(1, store.getTimedCount());
+        } finally {
+            store.close();
+        }
+    }
+}